@@ -0,0 +1,105 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import net.minecraft.src.*;
+
+/**
+ * Measures the per-packet cost of a compiled {@link FilterExpression} against
+ * a typical mix of packets: mostly entity movement, some block changes, chat,
+ * plugin messages, and keepalives.
+ * <p>
+ * Lives under dev/ so it stays out of the release. Usage, with minecraft.jar
+ * and this mod on the classpath:
+ * <pre>java com.bencvt.minecraft.mcpacketsniffer.FilterBenchmark ["filter expression" ...]</pre>
+ * Each expression is timed in turn, after a warmup. Without arguments, a few
+ * representative expressions are timed, including the empty filter as a
+ * baseline.
+ */
+public class FilterBenchmark {
+    public static final int PACKETS = 1024;
+    public static final int WARMUP_ROUNDS = 2000;
+    public static final int ROUNDS = 10000;
+
+    private static final String[] DEFAULT_EXPRESSIONS = {
+        "",
+        "s2c and not id 0x00,0x1F-0x23",
+        "eid 1234,5678",
+        "chunk -4,-4..3,3",
+        "s2c (eid 1234 or chunk -4,-4..3,3) or chat \"[Server]\"",
+        "not channel \"MC|PingHost\" and not chat \"joined the game\"",
+    };
+
+    private final PacketDirection[] dirs = new PacketDirection[PACKETS];
+    private final Packet[] packets = new Packet[PACKETS];
+
+    public FilterBenchmark() {
+        for (int i = 0; i < PACKETS; i++) {
+            dirs[i] = PacketDirection.S2C;
+            switch (i % 16) {
+            case 0:
+                dirs[i] = PacketDirection.C2S;
+                packets[i] = new Packet0KeepAlive();
+                break;
+            case 1:
+                Packet3Chat chat = new Packet3Chat();
+                chat.message = "<player" + i + "> hello";
+                packets[i] = chat;
+                break;
+            case 2:
+                Packet250CustomPayload payload = new Packet250CustomPayload();
+                payload.channel = "MC|Brand";
+                packets[i] = payload;
+                break;
+            case 3:
+            case 4:
+                Packet53BlockChange block = new Packet53BlockChange();
+                block.xPosition = (i * 7) % 200 - 100;
+                block.yPosition = 64;
+                block.zPosition = (i * 13) % 200 - 100;
+                packets[i] = block;
+                break;
+            default:
+                Packet31RelEntityMove move = new Packet31RelEntityMove();
+                move.entityId = 1000 + i % 500;
+                packets[i] = move;
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return the average time per packet, in nanoseconds
+     */
+    public double run(FilterExpression filter) {
+        consume(filter, WARMUP_ROUNDS);
+        long start = System.nanoTime();
+        int matched = consume(filter, ROUNDS);
+        long elapsed = System.nanoTime() - start;
+        if (matched < 0) {
+            // never happens; keeps the loop from being optimized away
+            System.out.println(matched);
+        }
+        return (double) elapsed / ((long) ROUNDS * PACKETS);
+    }
+
+    private int consume(FilterExpression filter, int rounds) {
+        int matched = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < PACKETS; i++) {
+                if (filter.matches(dirs[i], packets[i])) {
+                    matched++;
+                }
+            }
+        }
+        return matched;
+    }
+
+    public static void main(String[] args) {
+        String[] expressions = args.length > 0 ? args : DEFAULT_EXPRESSIONS;
+        FilterBenchmark benchmark = new FilterBenchmark();
+        for (String expression : expressions) {
+            double ns = benchmark.run(FilterExpression.compile(expression));
+            System.out.println(String.format("%8.1f ns/packet  %s", ns,
+                    expression.isEmpty() ? "(empty)" : expression));
+        }
+    }
+}
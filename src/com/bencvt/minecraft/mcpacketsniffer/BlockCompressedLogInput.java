@@ -0,0 +1,189 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a log written by {@link BlockCompressedLogOutput}, inflating only
+ * the blocks that are actually needed.
+ * <p>
+ * Usage, to decompress a whole log or just the blocks overlapping a time span:
+ * <pre>java com.bencvt.minecraft.mcpacketsniffer.BlockCompressedLogInput packets.txt.z ["2012-05-18 13:39:48" ["2012-05-18 13:45:00"]]</pre>
+ * The output goes to stdout. Since blocks are whole, it may start a little
+ * before and end a little after the requested span.
+ */
+public class BlockCompressedLogInput {
+    public static class BlockInfo {
+        public final long offset;
+        public final long firstTimestamp;
+        public final long lastTimestamp;
+        public final int records;
+        public final int compressedLength;
+        public final int rawLength;
+
+        public BlockInfo(long offset, long firstTimestamp, long lastTimestamp, int records,
+                int compressedLength, int rawLength) {
+            this.offset = offset;
+            this.firstTimestamp = firstTimestamp;
+            this.lastTimestamp = lastTimestamp;
+            this.records = records;
+            this.compressedLength = compressedLength;
+            this.rawLength = rawLength;
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final List<BlockInfo> blocks;
+
+    public BlockCompressedLogInput(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        File indexFile = new File(file.getPath() + BlockCompressedLogOutput.INDEX_EXTENSION);
+        List<BlockInfo> indexed = indexFile.exists() ? readIndex(indexFile) : new ArrayList<BlockInfo>();
+        blocks = scanBlocks(indexed);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("usage: BlockCompressedLogInput packets.txt.z [\"from yyyy-mm-dd hh:mm:ss\" [\"to yyyy-mm-dd hh:mm:ss\"]]");
+            System.exit(1);
+        }
+        long from = args.length > 1 ? Timestamp.valueOf(withMillis(args[1])).getTime() : Long.MIN_VALUE;
+        long to = args.length > 2 ? Timestamp.valueOf(withMillis(args[2])).getTime() : Long.MAX_VALUE;
+        BlockCompressedLogInput in = new BlockCompressedLogInput(new File(args[0]));
+        try {
+            in.copyTo(System.out, from, to);
+        } finally {
+            System.out.flush();
+            in.close();
+        }
+    }
+
+    private static String withMillis(String timestamp) {
+        return timestamp.indexOf('.') < 0 ? timestamp + ".000" : timestamp;
+    }
+
+    public List<BlockInfo> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Decompress every block overlapping [from, to] to a stream.
+     */
+    public void copyTo(OutputStream out, long from, long to) throws IOException {
+        for (BlockInfo block : blocks) {
+            if (block.lastTimestamp >= from && block.firstTimestamp <= to) {
+                out.write(readBlock(block));
+            }
+        }
+    }
+
+    public byte[] readBlock(BlockInfo block) throws IOException {
+        byte[] compressed = new byte[block.compressedLength];
+        file.seek(block.offset + BlockCompressedLogOutput.BLOCK_HEADER_SIZE);
+        file.readFully(compressed);
+        byte[] raw = new byte[block.rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                int n = inflater.inflate(raw, length, raw.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != raw.length) {
+                throw new IOException("corrupt block at offset " + block.offset);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt block at offset " + block.offset, e);
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Parse the index, stopping at the first incomplete line (e.g. after a
+     * client crash).
+     */
+    private static List<BlockInfo> readIndex(File indexFile) throws IOException {
+        List<BlockInfo> result = new ArrayList<BlockInfo>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(indexFile), ConnectionLog.CHARSET));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\t");
+                if (parts.length != 6) {
+                    break;
+                }
+                try {
+                    result.add(new BlockInfo(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                            Long.parseLong(parts[2]), Integer.parseInt(parts[3]),
+                            Integer.parseInt(parts[4]), Integer.parseInt(parts[5])));
+                } catch (NumberFormatException e) {
+                    break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    /**
+     * Trust the index as far as it goes, then read block headers for anything
+     * written after it (or for the whole file if there's no index).
+     * A truncated block at the end of the file is ignored.
+     */
+    private List<BlockInfo> scanBlocks(List<BlockInfo> indexed) throws IOException {
+        List<BlockInfo> result = new ArrayList<BlockInfo>(indexed);
+        long offset = 0L;
+        if (!result.isEmpty()) {
+            BlockInfo last = result.get(result.size() - 1);
+            offset = last.offset + BlockCompressedLogOutput.BLOCK_HEADER_SIZE + last.compressedLength;
+        }
+        long length = file.length();
+        while (offset + BlockCompressedLogOutput.BLOCK_HEADER_SIZE <= length) {
+            file.seek(offset);
+            BlockInfo block;
+            try {
+                int compressedLength = file.readInt();
+                int rawLength = file.readInt();
+                long firstTimestamp = file.readLong();
+                long lastTimestamp = file.readLong();
+                int records = file.readInt();
+                block = new BlockInfo(offset, firstTimestamp, lastTimestamp, records, compressedLength, rawLength);
+            } catch (EOFException e) {
+                break;
+            }
+            long next = offset + BlockCompressedLogOutput.BLOCK_HEADER_SIZE + block.compressedLength;
+            if (block.compressedLength < 0 || next > length) {
+                break;
+            }
+            result.add(block);
+            offset = next;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,269 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the log as a sequence of independently compressed blocks, e.g.
+ * "packets_mc.example.com.txt.z", plus a block index,
+ * "packets_mc.example.com.txt.z.idx". Unlike gzip-ing the whole file
+ * afterwards, a reader can jump straight to the blocks covering the time
+ * span it cares about and only inflate those. See
+ * {@link BlockCompressedLogInput}.
+ * <p>
+ * Blocks are cut on a record boundary once they reach the configured size.
+ * Each block is compressed with its own {@link Deflater} on a shared
+ * background thread pool; the finished blocks are written out in order as
+ * they become available.
+ * <p>
+ * Block layout (big-endian):
+ * <pre>
+ *   int   compressed length
+ *   int   uncompressed length
+ *   long  timestamp of the first record
+ *   long  timestamp of the last record
+ *   int   number of records
+ *   ...   zlib data
+ * </pre>
+ * The index has one tab-separated line per block: file offset, first/last
+ * timestamp (epoch millis), record count, compressed and uncompressed length.
+ * The block headers carry the same information, so the index can be rebuilt
+ * by scanning if it's lost.
+ * <p>
+ * Like the other segmented outputs, the segment listener is notified at the
+ * start of every block after the first, so binary captures can be decoded
+ * one block at a time.
+ * <p>
+ * Records still in the current (uncompressed) block are only in memory. After
+ * a client crash, at most one block's worth of the log is lost.
+ */
+public class BlockCompressedLogOutput extends LogOutput {
+    public static final String EXTENSION = ".z";
+    public static final String INDEX_EXTENSION = ".idx";
+    public static final int BLOCK_HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+    /** Once this many blocks are waiting to be compressed, wait for the oldest one. */
+    public static final int MAX_PENDING_BLOCKS = 8;
+
+    private static final ExecutorService compressors = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, Controller.NAME + " block compressor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /** A block handed off to the compressor pool. */
+    private static class Block implements Callable<Block> {
+        final byte[] raw;
+        final int rawLength;
+        final long firstTimestamp;
+        final long lastTimestamp;
+        final int records;
+        byte[] compressed;
+        int compressedLength;
+
+        Block(byte[] raw, int rawLength, long firstTimestamp, long lastTimestamp, int records) {
+            this.raw = raw;
+            this.rawLength = rawLength;
+            this.firstTimestamp = firstTimestamp;
+            this.lastTimestamp = lastTimestamp;
+            this.records = records;
+        }
+
+        @Override
+        public Block call() {
+            Deflater deflater = new Deflater();
+            try {
+                deflater.setInput(raw, 0, rawLength);
+                deflater.finish();
+                compressed = new byte[rawLength / 4 + 64];
+                while (!deflater.finished()) {
+                    if (compressedLength == compressed.length) {
+                        byte[] bigger = new byte[compressed.length * 2];
+                        System.arraycopy(compressed, 0, bigger, 0, compressedLength);
+                        compressed = bigger;
+                    }
+                    compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+                }
+            } finally {
+                deflater.end();
+            }
+            return this;
+        }
+    }
+
+    private final File file;
+    private final int blockSize;
+    private final DataOutputStream out;
+    private final Writer index;
+    private final LinkedList<Future<Block>> pending = new LinkedList<Future<Block>>();
+    private final ArrayList<byte[]> spareBuffers = new ArrayList<byte[]>();
+    private long offset;
+    private byte[] block;
+    private int blockLength;
+    private int blockRecords;
+    private long blockFirstTimestamp;
+    private long blockLastTimestamp;
+    private boolean closed;
+
+    /**
+     * @param dir
+     * @param baseName e.g. "packets_mc.example.com"
+     * @param extension e.g. ".txt"
+     * @param blockSize uncompressed bytes per block
+     */
+    public BlockCompressedLogOutput(File dir, String baseName, String extension, int blockSize) throws IOException {
+        file = new File(dir, baseName + extension + EXTENSION);
+        this.blockSize = blockSize;
+        // appending is safe: every block is self-contained
+        offset = file.length();
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 65536));
+        File indexFile = new File(file.getPath() + INDEX_EXTENSION);
+        boolean indexExists = indexFile.exists();
+        index = new OutputStreamWriter(new FileOutputStream(indexFile, true), ConnectionLog.CHARSET);
+        if (!indexExists) {
+            index.write("# offset\tfirst\tlast\trecords\tcompressed\traw\n");
+        }
+        block = new byte[blockSize + blockSize / 8];
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureRemaining(1);
+        block[blockLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureRemaining(len);
+        System.arraycopy(b, off, block, blockLength, len);
+        blockLength += len;
+    }
+
+    /** Grow the current block for the odd record that doesn't fit. */
+    private void ensureRemaining(int needed) {
+        if (block.length - blockLength < needed) {
+            byte[] bigger = new byte[Math.max(block.length * 2, blockLength + needed)];
+            System.arraycopy(block, 0, bigger, 0, blockLength);
+            block = bigger;
+        }
+    }
+
+    @Override
+    public void endRecord(long timestamp) throws IOException {
+        if (blockRecords == 0) {
+            blockFirstTimestamp = timestamp;
+        }
+        blockLastTimestamp = timestamp;
+        blockRecords++;
+        if (blockLength >= blockSize) {
+            sealBlock();
+            if (segmentListener != null) {
+                segmentListener.onSegmentStart(this);
+            }
+        }
+    }
+
+    /**
+     * Hand the current block off to the compressor pool and start a new one.
+     */
+    private void sealBlock() throws IOException {
+        if (blockLength == 0) {
+            return;
+        }
+        pending.add(compressors.submit(new Block(block, blockLength,
+                blockFirstTimestamp, blockLastTimestamp, blockRecords)));
+        if (spareBuffers.isEmpty()) {
+            block = new byte[blockSize + blockSize / 8];
+        } else {
+            block = spareBuffers.remove(spareBuffers.size() - 1);
+        }
+        blockLength = 0;
+        blockRecords = 0;
+        writeCompletedBlocks(pending.size() > MAX_PENDING_BLOCKS);
+    }
+
+    /**
+     * Write out compressed blocks in order, stopping at the first one that's
+     * still being compressed.
+     * @param wait if true, wait for at least the oldest block
+     */
+    private void writeCompletedBlocks(boolean wait) throws IOException {
+        while (!pending.isEmpty() && (wait || pending.getFirst().isDone())) {
+            wait = false;
+            Block done;
+            try {
+                done = pending.removeFirst().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while compressing " + file, e);
+            } catch (ExecutionException e) {
+                throw new IOException("unable to compress block of " + file, e.getCause());
+            }
+            out.writeInt(done.compressedLength);
+            out.writeInt(done.rawLength);
+            out.writeLong(done.firstTimestamp);
+            out.writeLong(done.lastTimestamp);
+            out.writeInt(done.records);
+            out.write(done.compressed, 0, done.compressedLength);
+            index.write(offset + "\t" + done.firstTimestamp + "\t" + done.lastTimestamp + "\t" +
+                    done.records + "\t" + done.compressedLength + "\t" + done.rawLength + "\n");
+            offset += BLOCK_HEADER_SIZE + done.compressedLength;
+            if (done.raw.length == blockSize + blockSize / 8 && spareBuffers.size() < MAX_PENDING_BLOCKS) {
+                spareBuffers.add(done.raw);
+            }
+        }
+    }
+
+    /**
+     * Write out whatever blocks have finished compressing. The current block
+     * stays open: sealing it on every flush would make for tiny blocks.
+     */
+    @Override
+    public void flush() throws IOException {
+        writeCompletedBlocks(false);
+        out.flush();
+        index.flush();
+    }
+
+    /**
+     * Compress the last, partial block and wait for everything to be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            sealBlock();
+            while (!pending.isEmpty()) {
+                writeCompletedBlocks(true);
+            }
+        } finally {
+            out.close();
+            index.close();
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+import net.minecraft.src.*;
+
+/**
+ * Turns a binary capture written by {@link CaptureWriter} into the same text
+ * format that ConnectionLog writes directly.
+ * <p>
+ * Packets are rebuilt and handed to the regular packet loggers, so the output
+ * is identical except for details that depend on live game state: packets
+ * referring to an entity that's already in the world (entity status,
+ * movement, metadata, attach, collect, ...) log it as just "{eid=1234}"
+ * rather than "{eid=1234 type=... pos=(x,y,z)}", since there is no world to
+ * look it up in. The capture doesn't store entity state. Packets the client
+ * can't re-serialize (e.g. chunk data) were rendered when captured, and are
+ * copied as-is.
+ * <p>
+ * Usage, with minecraft.jar and this mod on the classpath:
+ * <pre>java com.bencvt.minecraft.mcpacketsniffer.CaptureConverter packets.mcpcap [packets.txt]</pre>
+ * or, for segmented captures, list the segments in order and then the
+ * output file:
+ * <pre>java com.bencvt.minecraft.mcpacketsniffer.CaptureConverter packets.0000.mcpcap packets.0001.mcpcap packets.txt</pre>
+ * Block-compressed captures (packets.mcpcap.z) are accepted as well.
+ * <p>
+ * Runs without starting Minecraft: see {@link Controller#initStandalone}.
+ * Options that affect rendering (nbt-*, packet-fields, ...) are read from
+ * options.txt in the current directory, if there is one.
+ */
+public class CaptureConverter {
+    private final DataInputStream in;
+    private final PrintWriter out;
+    private final ArrayList<String> dictionary = new ArrayList<String>();
+    private long lastTimestamp;
+    private int lastEntityId;
+    private boolean firstSession = true;
+    private byte[] record = new byte[512];
+    private int pos;
+    private int end;
+
+    public CaptureConverter(InputStream in, PrintWriter out) {
+        this.in = new DataInputStream(in);
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: CaptureConverter input.mcpcap [more-input.mcpcap ...] [output.txt]");
+            System.exit(1);
+        }
+        Controller.initStandalone(new File("."));
+        int numInputs = args.length;
+        File outFile;
+        if (args.length > 1 && !isCaptureFileName(args[args.length - 1])) {
+            numInputs--;
+            outFile = new File(args[args.length - 1]);
+        } else {
+            outFile = new File(args[0].replaceAll("\\.mcpcap(\\.z)?$", "") + ".txt");
+        }
+        File[] inFiles = new File[numInputs];
+        for (int i = 0; i < numInputs; i++) {
+            inFiles[i] = new File(args[i]);
+        }
+        convert(inFiles, outFile);
+    }
+
+    private static boolean isCaptureFileName(String name) {
+        return name.endsWith(".mcpcap") || name.endsWith(".mcpcap" + BlockCompressedLogOutput.EXTENSION);
+    }
+
+    public static void convert(File inFile, File outFile) throws IOException {
+        convert(new File[] { inFile }, outFile);
+    }
+
+    /**
+     * Convert one or more segments, in order, to a single text file.
+     */
+    public static void convert(File[] inFiles, File outFile) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(outFile)));
+        boolean firstSession = true;
+        try {
+            for (File inFile : inFiles) {
+                if (inFile.getName().endsWith(BlockCompressedLogOutput.EXTENSION)) {
+                    // every block starts with its own file header, just like a segment
+                    BlockCompressedLogInput blocks = new BlockCompressedLogInput(inFile);
+                    try {
+                        for (BlockCompressedLogInput.BlockInfo block : blocks.getBlocks()) {
+                            firstSession = convert(new ByteArrayInputStream(blocks.readBlock(block)), out, firstSession);
+                        }
+                    } finally {
+                        blocks.close();
+                    }
+                    continue;
+                }
+                InputStream in = new BufferedInputStream(new FileInputStream(inFile));
+                try {
+                    firstSession = convert(in, out, firstSession);
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static boolean convert(InputStream in, PrintWriter out, boolean firstSession) throws IOException {
+        CaptureConverter converter = new CaptureConverter(in, out);
+        converter.firstSession = firstSession;
+        converter.convert();
+        return converter.firstSession;
+    }
+
+    public void convert() throws IOException {
+        byte[] magic = new byte[CaptureWriter.MAGIC.length];
+        in.readFully(magic);
+        for (int i = 0; i < magic.length; i++) {
+            if (magic[i] != CaptureWriter.MAGIC[i]) {
+                throw new IOException("not a packet capture file");
+            }
+        }
+        int version = in.read();
+        if (version != CaptureWriter.VERSION) {
+            throw new IOException("unsupported capture version " + version);
+        }
+
+        StringBuilder line = new StringBuilder(160);
+        while (readRecord()) {
+            line.setLength(0);
+            convertRecord(line);
+            out.println(line.toString());
+        }
+    }
+
+    /**
+     * Render a single record from {@link #record} as a text line.
+     */
+    private void convertRecord(StringBuilder line) throws IOException {
+        long delta = unZigZag(readVarLong());
+        int flags = readByte();
+        int kind = (flags >> CaptureWriter.KIND_SHIFT) & CaptureWriter.KIND_MASK;
+        if ((flags & CaptureWriter.FLAG_SESSION_START) != 0) {
+            dictionary.clear();
+            lastTimestamp = 0L;
+            lastEntityId = 0;
+            if (!firstSession) {
+                // ConnectionLog does the same when appending to an existing file
+                out.println();
+                out.println();
+            }
+            firstSession = false;
+        }
+        long timestamp = lastTimestamp + delta;
+        lastTimestamp = timestamp;
+
+        if (kind == CaptureWriter.KIND_NOTE) {
+            PacketLoggersBase.logTimestamp(line, timestamp);
+            line.append(' ').append(readRawString());
+            return;
+        }
+
+        PacketDirection dir = (flags & CaptureWriter.FLAG_S2C) != 0 ? PacketDirection.S2C : PacketDirection.C2S;
+        int packetId = readByte();
+        ConnectionLog.logPacketHeader(line, dir, packetId, timestamp);
+        if (kind == CaptureWriter.KIND_TEXT) {
+            line.append(readRawString());
+            return;
+        }
+
+        Packet packet = Packet.getNewPacket(packetId);
+        if (packet == null) {
+            throw new IOException("unknown packet id " + packetId);
+        }
+        if (kind == CaptureWriter.KIND_WIRE) {
+            packet.readPacketData(new DataInputStream(new ByteArrayInputStream(record, pos, end - pos)));
+        } else {
+            readCompact(packet);
+        }
+        Controller.packetLoggerRegistry.dispatch(line, dir, packet);
+    }
+
+    /** Mirror image of CaptureWriter.writeCompact. */
+    private void readCompact(Packet packet) throws IOException {
+        switch (packet.getPacketId()) {
+        case 0x00:
+            ((Packet0KeepAlive) packet).randomId = unZigZag(readVarInt());
+            break;
+        case 0x03:
+            ((Packet3Chat) packet).message = readDictionaryString();
+            break;
+        case 0x1C: {
+            Packet28EntityVelocity p = (Packet28EntityVelocity) packet;
+            p.entityId = readEntityId();
+            p.motionX = unZigZag(readVarInt());
+            p.motionY = unZigZag(readVarInt());
+            p.motionZ = unZigZag(readVarInt());
+            break;
+        }
+        case 0x1E:
+            ((Packet30Entity) packet).entityId = readEntityId();
+            break;
+        case 0x1F:
+        case 0x21: {
+            Packet30Entity p = (Packet30Entity) packet;
+            p.entityId = readEntityId();
+            p.xPosition = (byte) unZigZag(readVarInt());
+            p.yPosition = (byte) unZigZag(readVarInt());
+            p.zPosition = (byte) unZigZag(readVarInt());
+            if (packet.getPacketId() == 0x21) {
+                p.yaw = (byte) readByte();
+                p.pitch = (byte) readByte();
+            }
+            break;
+        }
+        case 0x20: {
+            Packet30Entity p = (Packet30Entity) packet;
+            p.entityId = readEntityId();
+            p.yaw = (byte) readByte();
+            p.pitch = (byte) readByte();
+            break;
+        }
+        case 0x22: {
+            Packet34EntityTeleport p = (Packet34EntityTeleport) packet;
+            p.entityId = readEntityId();
+            p.xPosition = unZigZag(readVarInt());
+            p.yPosition = unZigZag(readVarInt());
+            p.zPosition = unZigZag(readVarInt());
+            p.yaw = (byte) readByte();
+            p.pitch = (byte) readByte();
+            break;
+        }
+        case 0x23: {
+            Packet35EntityHeadRotation p = (Packet35EntityHeadRotation) packet;
+            p.entityId = readEntityId();
+            p.headRotationYaw = (byte) readByte();
+            break;
+        }
+        case 0xC9: {
+            Packet201PlayerInfo p = (Packet201PlayerInfo) packet;
+            p.playerName = readDictionaryString();
+            p.isConnected = readByte() != 0;
+            p.ping = unZigZag(readVarInt());
+            break;
+        }
+        case 0xFA: {
+            Packet250CustomPayload p = (Packet250CustomPayload) packet;
+            p.channel = readDictionaryString();
+            int length = readVarInt() - 1;
+            if (length >= 0) {
+                p.data = new byte[length];
+                System.arraycopy(record, pos, p.data, 0, length);
+                p.length = length;
+                pos += length;
+            }
+            break;
+        }
+        default:
+            throw new IOException("no compact layout for packet id " + packet.getPacketId());
+        }
+    }
+
+    private int readEntityId() throws IOException {
+        lastEntityId += unZigZag(readVarInt());
+        return lastEntityId;
+    }
+
+    private String readDictionaryString() throws IOException {
+        int index = readVarInt();
+        if (index > 0) {
+            return dictionary.get(index - 1);
+        }
+        String s = readRawString();
+        if (dictionary.size() < CaptureWriter.MAX_DICTIONARY_SIZE) {
+            dictionary.add(s);
+        }
+        return s;
+    }
+
+    //
+    // Primitive decoders
+    //
+
+    /**
+     * Read the next length-prefixed record into {@link #record}.
+     * @return false at end of file
+     */
+    private boolean readRecord() throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return false;
+                }
+                throw new EOFException("truncated record length");
+            }
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length == 0) {
+            // zero padding at the end of a memory-mapped segment
+            return false;
+        }
+        if (record.length < length) {
+            record = new byte[length];
+        }
+        in.readFully(record, 0, length);
+        pos = 0;
+        end = length;
+        return true;
+    }
+
+    private int readByte() throws IOException {
+        if (pos >= end) {
+            throw new EOFException("truncated record");
+        }
+        return record[pos++] & 0xFF;
+    }
+
+    private int readVarInt() throws IOException {
+        return (int) readVarLong();
+    }
+
+    private long readVarLong() throws IOException {
+        long n = 0L;
+        for (int shift = 0; ; shift += 7) {
+            int b = readByte();
+            n |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+        }
+    }
+
+    private String readRawString() throws IOException {
+        int length = readVarInt();
+        if (pos + length > end) {
+            throw new EOFException("truncated string");
+        }
+        String s = new String(record, pos, length, "UTF-8");
+        pos += length;
+        return s;
+    }
+
+    public static int unZigZag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+    public static long unZigZag(long n) {
+        return (n >>> 1) ^ -(n & 1L);
+    }
+}
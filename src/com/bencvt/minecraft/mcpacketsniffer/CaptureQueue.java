@@ -0,0 +1,219 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import java.util.logging.Level;
+
+import net.minecraft.src.Packet;
+
+/**
+ * Bounded, preallocated ring buffer that hands packet events off from the
+ * network threads to a dedicated consumer thread. Producers only copy three
+ * references/values into a slot, so packet delivery is never held up by
+ * filtering, rendering, or file I/O.
+ * <p>
+ * If the consumer falls so far behind that the ring fills up, new events are
+ * dropped (and counted) rather than blocking the producer.
+ * <p>
+ * Notes, e.g. "capture stopped", go through the ring as well, so they end up
+ * in the log after the packets queued before them.
+ *
+ * Each CaptureQueue is owned by a ConnectionLog.
+ */
+public class CaptureQueue {
+    public interface Consumer {
+        /**
+         * @param weight number of packets this one stands in for when
+         *               sampling, otherwise 1
+         */
+        public void onPacket(PacketDirection dir, Packet packet, long timestamp, int weight);
+
+        /** @param timestamp always in milliseconds */
+        public void onNote(String text, long timestamp);
+
+        /** Called after each batch, once the ring has been drained. */
+        public void onBatchEnd();
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final PacketDirection[] dirs;
+    private final Packet[] packets;
+    private final long[] timestamps;
+    private final int[] weights;
+    private final String[] notes;
+    private final Object lock = new Object();
+    private final Consumer consumer;
+    private Thread consumerThread;
+
+    // All of the following are guarded by lock.
+    private long head; // next slot to write
+    private long tail; // next slot to read
+    private boolean consumerWaiting;
+    private boolean stopping;
+    private long enqueued;
+    private long dropped;
+    private long maxDepth;
+    private long totalEnqueueNanos;
+    private long maxEnqueueNanos;
+
+    public CaptureQueue(int requestedCapacity, Consumer consumer) {
+        int cap = 1;
+        while (cap < requestedCapacity) {
+            cap <<= 1;
+        }
+        capacity = cap;
+        mask = cap - 1;
+        dirs = new PacketDirection[cap];
+        packets = new Packet[cap];
+        timestamps = new long[cap];
+        weights = new int[cap];
+        notes = new String[cap];
+        this.consumer = consumer;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void start() {
+        consumerThread = new Thread(Controller.NAME + " packet log writer") {
+            @Override
+            public void run() {
+                PacketLoggersBase.disableWorldLookups();
+                consumeUntilStopped();
+            }
+        };
+        consumerThread.setDaemon(true);
+        consumerThread.start();
+    }
+
+    /**
+     * Drain whatever is left in the ring, then stop the consumer thread.
+     * Blocks until the consumer is done or has taken too long.
+     */
+    public void stop() {
+        synchronized (lock) {
+            stopping = true;
+            lock.notifyAll();
+        }
+        if (consumerThread != null && consumerThread != Thread.currentThread()) {
+            try {
+                consumerThread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Called by the network threads. Never blocks on anything but the brief
+     * ring index update.
+     * @return false if the ring was full and the event was dropped
+     */
+    public boolean offer(PacketDirection dir, Packet packet, long timestamp, int weight) {
+        return enqueue(dir, packet, null, timestamp, weight);
+    }
+
+    /**
+     * Called by any thread but the consumer.
+     * @return false if the ring was full or stopping, so the caller has to
+     *         write the note itself
+     */
+    public boolean offerNote(String text, long timestamp) {
+        return enqueue(null, null, text, timestamp, 0);
+    }
+
+    private boolean enqueue(PacketDirection dir, Packet packet, String note, long timestamp, int weight) {
+        long startNanos = System.nanoTime();
+        synchronized (lock) {
+            long depth = head - tail;
+            if (stopping || depth >= capacity) {
+                if (packet != null) {
+                    dropped++;
+                }
+                return false;
+            }
+            int slot = (int) head & mask;
+            dirs[slot] = dir;
+            packets[slot] = packet;
+            notes[slot] = note;
+            timestamps[slot] = timestamp;
+            weights[slot] = weight;
+            head++;
+            enqueued++;
+            if (depth + 1 > maxDepth) {
+                maxDepth = depth + 1;
+            }
+            if (consumerWaiting) {
+                lock.notify();
+            }
+            long elapsed = System.nanoTime() - startNanos;
+            totalEnqueueNanos += elapsed;
+            if (elapsed > maxEnqueueNanos) {
+                maxEnqueueNanos = elapsed;
+            }
+        }
+        return true;
+    }
+
+    private void consumeUntilStopped() {
+        while (true) {
+            long batchStart;
+            long batchEnd;
+            synchronized (lock) {
+                while (head == tail && !stopping) {
+                    consumerWaiting = true;
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        stopping = true;
+                    }
+                    consumerWaiting = false;
+                }
+                if (head == tail && stopping) {
+                    return;
+                }
+                batchStart = tail;
+                batchEnd = head;
+            }
+
+            // Slots in [batchStart, batchEnd) won't be touched by producers
+            // until tail advances past them, so no need to hold the lock.
+            for (long i = batchStart; i < batchEnd; i++) {
+                int slot = (int) i & mask;
+                try {
+                    if (notes[slot] != null) {
+                        consumer.onNote(notes[slot], timestamps[slot]);
+                    } else {
+                        consumer.onPacket(dirs[slot], packets[slot], timestamps[slot], weights[slot]);
+                    }
+                } catch (RuntimeException e) {
+                    Controller.getEventLog().log(Level.SEVERE,
+                            "unable to log packet " + packets[slot], e);
+                }
+                dirs[slot] = null;
+                packets[slot] = null;
+                notes[slot] = null;
+            }
+            consumer.onBatchEnd();
+
+            synchronized (lock) {
+                tail = batchEnd;
+            }
+        }
+    }
+
+    /**
+     * Output a one-line summary, e.g. "enqueued=1234 dropped=0 depth=0/16384
+     * maxdepth=37 enqueue avg=85ns max=2113ns"
+     */
+    public void logStats(StringBuilder line) {
+        synchronized (lock) {
+            line.append("enqueued=").append(enqueued);
+            line.append(" dropped=").append(dropped);
+            line.append(" depth=").append(head - tail).append('/').append(capacity);
+            line.append(" maxdepth=").append(maxDepth);
+            line.append(" enqueue avg=").append(enqueued == 0L ? 0L : totalEnqueueNanos / enqueued);
+            line.append("ns max=").append(maxEnqueueNanos).append("ns");
+        }
+    }
+}
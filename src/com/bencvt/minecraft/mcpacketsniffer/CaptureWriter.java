@@ -0,0 +1,374 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.logging.Level;
+
+import net.minecraft.src.*;
+
+/**
+ * Writes packets to a compact binary capture file (.mcpcap) instead of
+ * rendering them as text. Use {@link CaptureConverter} to turn a capture into
+ * the usual text log format later on.
+ * <p>
+ * File layout: the {@link #MAGIC} bytes, a version byte, then a sequence of
+ * records. Each record is a varint length followed by that many bytes:
+ * <pre>
+ *   varint  timestamp (zig-zag delta from the previous record; absolute for
+ *           session start records)
+ *   byte    flags: bit 0 = direction (set for S2C),
+ *                  bits 1-2 = record kind (wire/compact/text/note),
+ *                  bit 3 = session start (reset timestamp base and dictionary)
+ *   byte    packet id (omitted for notes)
+ *   ...     payload, depending on the record kind
+ * </pre>
+ * Record kinds:<ul>
+ * <li>wire: the packet's own {@link Packet#writePacketData} output.</li>
+ * <li>compact: a per-type layout for the highest-volume packets (entity
+ *     movement, chat, player list, plugin messages) using zig-zag varints for
+ *     entity ids and coordinates and a per-session dictionary for strings.</li>
+ * <li>text: the packet rendered as text, for packets that can't be
+ *     re-serialized on the client side (e.g. chunk data). The caller renders
+ *     these before taking the log lock (see {@link #needsText}), at the
+ *     connection's packet-verbosity, so they convert exactly as the text log
+ *     would have logged them.</li>
+ * <li>note: a non-packet line such as "new connection to ...".</li>
+ * </ul>
+ *
+ * When the output is split into segments, every segment starts with its
+ * own file header and fresh timestamp/entity/dictionary state, so each one
+ * can be converted on its own.
+ *
+ * Each CaptureWriter is owned by a ConnectionLog.
+ */
+public class CaptureWriter implements LogOutput.SegmentListener {
+    public static final byte[] MAGIC = { 'M', 'C', 'P', 'C', 'A', 'P' };
+    public static final int VERSION = 1;
+
+    public static final int FLAG_S2C = 0x01;
+    public static final int KIND_SHIFT = 1;
+    public static final int KIND_MASK = 0x03;
+    public static final int KIND_WIRE = 0;
+    public static final int KIND_COMPACT = 1;
+    public static final int KIND_TEXT = 2;
+    public static final int KIND_NOTE = 3;
+    public static final int FLAG_SESSION_START = 0x08;
+
+    public static final int MAX_DICTIONARY_SIZE = 4096;
+
+    /** ByteArrayOutputStream that exposes its buffer so it can be reused without copying. */
+    public static class RecordBuffer extends ByteArrayOutputStream {
+        public RecordBuffer(int size) {
+            super(size);
+        }
+        public byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    private final LogOutput out;
+    private final RecordBuffer record = new RecordBuffer(512);
+    private final RecordBuffer payload = new RecordBuffer(512);
+    private final DataOutputStream payloadData = new DataOutputStream(payload);
+    private final HashMap<String, Integer> dictionary = new HashMap<String, Integer>();
+    /** Read without locking by {@link #needsText}; a stale false is harmless. */
+    private final boolean[] wireUnsupported = new boolean[256];
+    private long lastTimestamp;
+    private int lastEntityId;
+
+    public CaptureWriter(LogOutput out, boolean writeFileHeader) throws IOException {
+        this.out = out;
+        if (writeFileHeader) {
+            writeFileHeader();
+        }
+        out.setSegmentListener(this);
+    }
+
+    private void writeFileHeader() throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+    }
+
+    @Override
+    public synchronized void onSegmentStart(LogOutput output) throws IOException {
+        writeFileHeader();
+        resetState();
+    }
+
+    private void resetState() {
+        dictionary.clear();
+        lastTimestamp = 0L;
+        lastEntityId = 0;
+    }
+
+    public synchronized void writeSessionStart(long timestamp, String text) throws IOException {
+        resetState();
+        writeNote(timestamp, text, FLAG_SESSION_START);
+    }
+
+    public synchronized void writeNote(long timestamp, String text) throws IOException {
+        writeNote(timestamp, text, 0);
+    }
+
+    private void writeNote(long timestamp, String text, int extraFlags) throws IOException {
+        record.reset();
+        writeTimestamp(timestamp);
+        record.write((KIND_NOTE << KIND_SHIFT) | extraFlags);
+        writeRawString(record, text);
+        flushRecord(timestamp);
+    }
+
+    /**
+     * @return true if packets of this type are stored as text, so the caller
+     *         should render them using {@link #renderText} and pass the result
+     *         to {@link #writePacket}
+     */
+    public boolean needsText(int packetId) {
+        return wireUnsupported[packetId & 0xFF];
+    }
+
+    /**
+     * Render and encode a packet for a text record, exactly like the text log
+     * would for the given verbosity, minus the line header.
+     */
+    public static void renderText(LineBuffer text, PacketDirection dir, Packet packet, int verbosity) {
+        StringBuilder line = text.begin(packet.getPacketId());
+        if (verbosity == Options.VERBOSITY_HEADER_ONLY) {
+            PacketLoggersBase.logApproximatePacketPayloadSize(line, packet);
+        } else {
+            Controller.packetLoggerRegistry.dispatch(line, dir, packet);
+        }
+        text.encode(null);
+    }
+
+    /**
+     * @param text the packet already passed through {@link #renderText}, or
+     *             null to render it here if needed
+     */
+    public synchronized void writePacket(PacketDirection dir, Packet packet, long timestamp, int verbosity,
+            LineBuffer text) throws IOException {
+        int packetId = packet.getPacketId();
+        record.reset();
+        writeTimestamp(timestamp);
+        int flagsPos = record.size();
+        record.write(0); // placeholder
+        record.write(packetId);
+        int kind;
+        if (writeCompact(packet)) {
+            kind = KIND_COMPACT;
+        } else if (writeWire(packet)) {
+            kind = KIND_WIRE;
+        } else {
+            if (text == null) {
+                // first packet of a type found to need text, or a caller
+                // that doesn't render ahead
+                text = LineBuffer.get();
+                renderText(text, dir, packet, verbosity);
+            }
+            int length = text.getLength();
+            writeVarInt(record, length);
+            record.write(text.getBytes(), 0, length);
+            kind = KIND_TEXT;
+        }
+        record.getBuffer()[flagsPos] = (byte) ((kind << KIND_SHIFT) | (dir == PacketDirection.S2C ? FLAG_S2C : 0));
+        flushRecord(timestamp);
+    }
+
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private void writeTimestamp(long timestamp) {
+        writeVarLong(record, zigZag(timestamp - lastTimestamp));
+        lastTimestamp = timestamp;
+    }
+
+    private void flushRecord(long timestamp) throws IOException {
+        int length = record.size();
+        // varint length prefix, written straight to the stream
+        while ((length & ~0x7F) != 0) {
+            out.write((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        out.write(length);
+        out.write(record.getBuffer(), 0, record.size());
+        out.endRecord(timestamp);
+    }
+
+    //
+    // Payload encoders
+    //
+
+    private boolean writeWire(Packet packet) {
+        int packetId = packet.getPacketId();
+        if (wireUnsupported[packetId]) {
+            return false;
+        }
+        payload.reset();
+        try {
+            packet.writePacketData(payloadData);
+        } catch (Exception e) {
+            // Some packets only keep the data needed to write them on the
+            // side that created them. Remember so we don't keep trying.
+            wireUnsupported[packetId] = true;
+            Controller.getEventLog().log(Level.INFO,
+                    "packet id " + packetId + " can't be re-serialized, storing rendered text instead", e);
+            return false;
+        }
+        record.write(payload.getBuffer(), 0, payload.size());
+        return true;
+    }
+
+    /**
+     * @return false if there is no compact layout for this packet type
+     */
+    private boolean writeCompact(Packet packet) {
+        switch (packet.getPacketId()) {
+        case 0x00:
+            writeVarInt(record, zigZag(((Packet0KeepAlive) packet).randomId));
+            return true;
+        case 0x03:
+            writeDictionaryString(((Packet3Chat) packet).message);
+            return true;
+        case 0x1C: {
+            Packet28EntityVelocity p = (Packet28EntityVelocity) packet;
+            writeEntityId(p.entityId);
+            writeVarInt(record, zigZag(p.motionX));
+            writeVarInt(record, zigZag(p.motionY));
+            writeVarInt(record, zigZag(p.motionZ));
+            return true;
+        }
+        case 0x1E:
+            writeEntityId(((Packet30Entity) packet).entityId);
+            return true;
+        case 0x1F:
+        case 0x21: {
+            Packet30Entity p = (Packet30Entity) packet;
+            writeEntityId(p.entityId);
+            writeVarInt(record, zigZag(p.xPosition));
+            writeVarInt(record, zigZag(p.yPosition));
+            writeVarInt(record, zigZag(p.zPosition));
+            if (packet.getPacketId() == 0x21) {
+                record.write(p.yaw);
+                record.write(p.pitch);
+            }
+            return true;
+        }
+        case 0x20: {
+            Packet30Entity p = (Packet30Entity) packet;
+            writeEntityId(p.entityId);
+            record.write(p.yaw);
+            record.write(p.pitch);
+            return true;
+        }
+        case 0x22: {
+            Packet34EntityTeleport p = (Packet34EntityTeleport) packet;
+            writeEntityId(p.entityId);
+            writeVarInt(record, zigZag(p.xPosition));
+            writeVarInt(record, zigZag(p.yPosition));
+            writeVarInt(record, zigZag(p.zPosition));
+            record.write(p.yaw);
+            record.write(p.pitch);
+            return true;
+        }
+        case 0x23: {
+            Packet35EntityHeadRotation p = (Packet35EntityHeadRotation) packet;
+            writeEntityId(p.entityId);
+            record.write(p.headRotationYaw);
+            return true;
+        }
+        case 0xC9: {
+            Packet201PlayerInfo p = (Packet201PlayerInfo) packet;
+            writeDictionaryString(p.playerName);
+            record.write(p.isConnected ? 1 : 0);
+            writeVarInt(record, zigZag(p.ping));
+            return true;
+        }
+        case 0xFA: {
+            Packet250CustomPayload p = (Packet250CustomPayload) packet;
+            writeDictionaryString(p.channel);
+            if (p.data == null) {
+                writeVarInt(record, 0);
+            } else {
+                writeVarInt(record, p.data.length + 1);
+                record.write(p.data, 0, p.data.length);
+            }
+            return true;
+        }
+        default:
+            return false;
+        }
+    }
+
+    /** Entity ids are stored as a zig-zag delta from the previous one. */
+    private void writeEntityId(int entityId) {
+        writeVarInt(record, zigZag(entityId - lastEntityId));
+        lastEntityId = entityId;
+    }
+
+    /**
+     * Strings are stored as a varint: 0 for a new string (followed by the
+     * string itself), or index + 1 of a string that's already been seen this
+     * session.
+     */
+    private void writeDictionaryString(String s) {
+        if (s == null) {
+            s = "";
+        }
+        Integer index = dictionary.get(s);
+        if (index != null) {
+            writeVarInt(record, index + 1);
+            return;
+        }
+        writeVarInt(record, 0);
+        writeRawString(record, s);
+        if (dictionary.size() < MAX_DICTIONARY_SIZE) {
+            dictionary.put(s, dictionary.size());
+        }
+    }
+
+    //
+    // Primitive encoders, shared with CaptureConverter
+    //
+
+    public static int zigZag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+    public static long zigZag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    public static void writeVarInt(ByteArrayOutputStream b, int n) {
+        while ((n & ~0x7F) != 0) {
+            b.write((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        b.write(n);
+    }
+
+    public static void writeVarLong(ByteArrayOutputStream b, long n) {
+        while ((n & ~0x7FL) != 0L) {
+            b.write((int) (n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        b.write((int) n);
+    }
+
+    public static void writeRawString(ByteArrayOutputStream b, String s) {
+        byte[] utf8;
+        try {
+            utf8 = s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e); // every JVM supports UTF-8
+        }
+        writeVarInt(b, utf8.length);
+        b.write(utf8, 0, utf8.length);
+    }
+}
@@ -2,8 +2,6 @@ package com.bencvt.minecraft.mcpacketsniffer;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.logging.Level;
 
 /**
@@ -123,15 +121,38 @@ public class CodeTable {
         }
     }
 
-    private final HashMap<Integer, String> table = new HashMap<Integer, String>();
-    private final HashSet<Integer> missingCodes = new HashSet<Integer>();
+    /** Values indexed by code - minCode; null for undefined codes. */
+    private final String[] table;
+    private final int minCode;
+    private final IntSet missingCodes = new IntSet();
     private String tableName;
 
     private CodeTable(String ... codeList) {
-        for (String code : codeList) {
-            String[] parts = code.split(" ", 2);
-            table.put(Integer.parseInt(parts[0]), parts[1]);
+        int[] codes = new int[codeList.length];
+        String[] values = new String[codeList.length];
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < codeList.length; i++) {
+            String[] parts = codeList[i].split(" ", 2);
+            codes[i] = Integer.parseInt(parts[0]);
+            values[i] = parts[1];
+            min = Math.min(min, codes[i]);
+            max = Math.max(max, codes[i]);
         }
+        minCode = min;
+        table = new String[max - min + 1];
+        for (int i = 0; i < codes.length; i++) {
+            table[codes[i] - min] = values[i];
+        }
+    }
+
+    /** @return the value for the code, or null if undefined */
+    public String get(int code) {
+        int index = code - minCode;
+        if (index < 0 || index >= table.length) {
+            return null;
+        }
+        return table[index];
     }
 
     public void log(StringBuilder line, int code) {
@@ -145,17 +166,28 @@ public class CodeTable {
      *                 If false, just "snowball".
      */
     public void log(StringBuilder line, int code, boolean fullCode) {
-        String value = table.get(code);
-        if (fullCode || value == null) {
-            line.append(code).append('(').append(value == null ? '?' : value).append(')');
+        String value = get(code);
+        if (value == null) {
+            line.append(code).append("(?)");
+            logMissingCode(code);
+        } else if (fullCode) {
+            line.append(code).append('(').append(value).append(')');
         } else {
             line.append(value);
         }
-        if (value == null && Controller.getOptions().logMissingCodes && !missingCodes.contains(code)) {
-            missingCodes.add(code);
-            Controller.getEventLog().log(Level.WARNING,
-                    "unrecognized code " + code + " for " + tableName,
-                    new Exception());
+    }
+
+    private void logMissingCode(int code) {
+        if (!Controller.getOptions().logMissingCodes) {
+            return;
+        }
+        synchronized (missingCodes) {
+            if (!missingCodes.add(code)) {
+                return;
+            }
         }
+        Controller.getEventLog().log(Level.WARNING,
+                "unrecognized code " + code + " for " + tableName,
+                new Exception());
     }
 }
@@ -0,0 +1,209 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import net.minecraft.src.Packet;
+import net.minecraft.src.Packet29DestroyEntity;
+
+/**
+ * Rule-based escalation: packets are only counted until one of the
+ * capture-conditions holds, then logged as usual for capture-duration
+ * seconds (extended for as long as a condition keeps holding), then only
+ * counted again.
+ * <p>
+ * Rates are worked out from the {@link StatRecorder} counters, sampled once a
+ * second into a small ring so they can be averaged over capture-rate-window
+ * seconds. The live entity count is kept up to date from spawn and destroy
+ * packets. Either way, the work per packet is a couple of comparisons.
+ * <p>
+ * Each ConditionalCapture is owned by a ConnectionLog.
+ */
+public class ConditionalCapture {
+    public static final long TICK = 1000L;
+
+    /** The capture-conditions option, compiled. */
+    public static class Rules {
+        private double s2cKbps = -1.0;
+        private double c2sKbps = -1.0;
+        private int entities = -1;
+        private double chunkRate = -1.0;
+        private final boolean[] packetIds = new boolean[256];
+        private boolean empty = true;
+
+        /**
+         * @param rules e.g. "s2c-kbps>500, entities>400, chunk-rate>20, packet=0xFF"
+         * @throws IllegalArgumentException if the rules are invalid
+         */
+        public static Rules parse(String rules) {
+            Rules result = new Rules();
+            for (String rule : rules.split(",")) {
+                rule = rule.trim();
+                if (rule.isEmpty()) {
+                    continue;
+                }
+                result.empty = false;
+                int op = rule.indexOf(rule.startsWith("packet") ? '=' : '>');
+                if (op < 0) {
+                    throw new IllegalArgumentException("invalid capture-conditions rule: " + rule);
+                }
+                String name = rule.substring(0, op).trim();
+                String value = rule.substring(op + 1).trim();
+                try {
+                    if (name.equals("s2c-kbps")) {
+                        result.s2cKbps = Double.parseDouble(value);
+                    } else if (name.equals("c2s-kbps")) {
+                        result.c2sKbps = Double.parseDouble(value);
+                    } else if (name.equals("entities")) {
+                        result.entities = Integer.parseInt(value);
+                    } else if (name.equals("chunk-rate")) {
+                        result.chunkRate = Double.parseDouble(value);
+                    } else if (name.equals("packet")) {
+                        int id = value.startsWith("0x") ? Integer.parseInt(value.substring(2), 16) : Integer.parseInt(value);
+                        if (id < 0 || id > 255) {
+                            throw new IllegalArgumentException("invalid capture-conditions rule: " + rule);
+                        }
+                        result.packetIds[id] = true;
+                    } else {
+                        throw new IllegalArgumentException("invalid capture-conditions rule: " + rule);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("invalid capture-conditions rule: " + rule);
+                }
+            }
+            return result;
+        }
+
+        public boolean isEmpty() {
+            return empty;
+        }
+    }
+
+    public interface Listener {
+        /** Called when capturing starts, e.g. reason="s2c-kbps=612". */
+        public void onCaptureStart(String reason, long timestamp);
+
+        public void onCaptureStop(long timestamp);
+    }
+
+    private final Rules rules;
+    private final StatRecorder stats;
+    private final long duration;
+    private final int windowTicks;
+    private final Listener listener;
+
+    // Samples, one per tick, indexed by tick % (windowTicks + 1).
+    private final long[] s2cBytes;
+    private final long[] c2sBytes;
+    private final long[] chunks;
+    private final long[] times;
+    private long tick;
+    private volatile long nextTick;
+
+    /** Only updated by the S2C thread. */
+    private volatile int entities;
+    private volatile boolean active;
+    private long activeUntil;
+
+    /**
+     * @param duration how long to capture once a condition holds, in ms
+     * @param window how long to average rates over, in ms
+     */
+    public ConditionalCapture(Rules rules, StatRecorder stats, long duration, long window, long now, Listener listener) {
+        this.rules = rules;
+        this.stats = stats;
+        this.duration = duration;
+        this.listener = listener;
+        windowTicks = (int) Math.max(1L, window / TICK);
+        s2cBytes = new long[windowTicks + 1];
+        c2sBytes = new long[windowTicks + 1];
+        chunks = new long[windowTicks + 1];
+        times = new long[windowTicks + 1];
+        times[0] = now;
+        nextTick = now + TICK;
+    }
+
+    /** @return true if packets should currently be logged */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Called by the network threads for every packet, after it's been
+     * recorded in the stats.
+     */
+    public void onPacket(PacketDirection dir, Packet packet, long timestamp) {
+        int packetId = packet.getPacketId();
+        if (dir == PacketDirection.S2C) {
+            switch (packetId) {
+            case 0x09: // respawn, possibly in another dimension
+                entities = 0;
+                break;
+            case 0x14: case 0x15: case 0x17: case 0x18: case 0x19: case 0x1A:
+                entities++;
+                break;
+            case 0x1D:
+                entities = Math.max(0, entities - ((Packet29DestroyEntity) packet).entityId.length);
+                break;
+            }
+        }
+        if (rules.packetIds[packetId]) {
+            trigger("packet=0x" + Integer.toHexString(packetId), timestamp);
+        } else if (rules.entities >= 0 && entities > rules.entities && !active) {
+            trigger("entities=" + entities, timestamp);
+        }
+        if (timestamp >= nextTick) {
+            tick(timestamp);
+        }
+    }
+
+    private synchronized void trigger(String reason, long timestamp) {
+        activeUntil = timestamp + duration;
+        if (!active) {
+            active = true;
+            listener.onCaptureStart(reason, timestamp);
+        }
+    }
+
+    /**
+     * Called about once a second by the flusher thread, so that capturing
+     * stops on time even if no packets arrive.
+     */
+    public void onTimer(long now) {
+        if (now >= nextTick) {
+            tick(now);
+        }
+    }
+
+    /**
+     * Sample the counters and check the rate rules, once a second.
+     */
+    private synchronized void tick(long timestamp) {
+        if (timestamp < nextTick) {
+            return; // another thread got here first
+        }
+        nextTick = timestamp + TICK;
+        tick++;
+        int slot = (int) (tick % s2cBytes.length);
+        s2cBytes[slot] = stats.getTotalBytes(PacketDirection.S2C);
+        c2sBytes[slot] = stats.getTotalBytes(PacketDirection.C2S);
+        chunks[slot] = stats.getPacketCount(PacketDirection.S2C, 0x33) + stats.getPacketCount(PacketDirection.S2C, 0x38);
+        times[slot] = timestamp;
+        // compare to the oldest sample in the window, or the start of the connection
+        int oldest = (int) ((tick - Math.min(tick, windowTicks)) % s2cBytes.length);
+        double seconds = (times[slot] - times[oldest]) / 1000.0;
+
+        double s2cKbps = (s2cBytes[slot] - s2cBytes[oldest]) * 8.0 / 1000.0 / seconds;
+        double c2sKbps = (c2sBytes[slot] - c2sBytes[oldest]) * 8.0 / 1000.0 / seconds;
+        double chunkRate = (chunks[slot] - chunks[oldest]) / seconds;
+        if (rules.s2cKbps >= 0.0 && s2cKbps > rules.s2cKbps) {
+            trigger("s2c-kbps=" + Math.round(s2cKbps), timestamp);
+        } else if (rules.c2sKbps >= 0.0 && c2sKbps > rules.c2sKbps) {
+            trigger("c2s-kbps=" + Math.round(c2sKbps), timestamp);
+        } else if (rules.chunkRate >= 0.0 && chunkRate > rules.chunkRate) {
+            trigger("chunk-rate=" + Math.round(chunkRate), timestamp);
+        } else if (rules.entities >= 0 && entities > rules.entities) {
+            trigger("entities=" + entities, timestamp);
+        } else if (active && timestamp >= activeUntil) {
+            active = false;
+            listener.onCaptureStop(timestamp);
+        }
+    }
+}
@@ -1,10 +1,9 @@
 package com.bencvt.minecraft.mcpacketsniffer;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.logging.Level;
 
 import net.minecraft.src.INetworkManager;
@@ -15,19 +14,34 @@ import net.minecraft.src.Packet;
  * 
  * Each ConnectionLog is owned by LogManager.
  */
-public class ConnectionLog {
+public class ConnectionLog implements CaptureQueue.Consumer {
+    public static final String CHARSET = "UTF-8";
+    public static final byte[] LINE_SEPARATOR = System.getProperty("line.separator").getBytes();
+
     private final INetworkManager connection;
-    private PrintWriter logWriter;
+    private volatile boolean running;
+    private LogOutput logWriter;
+    private boolean logWriterFailed;
+    private CaptureWriter captureWriter;
     private Object logWriterLock = new Object();
     private StatRecorder stats;
     private Thread flusherThread;
+    private CaptureQueue captureQueue;
+    private DeltaState deltaState;
+    private PacketCoalescer coalescer;
+    private MovementSummarizer movementSummarizer;
+    private EntityFollower entityFollower;
+    private FlightRecorder flightRecorder;
+    private ConditionalCapture conditionalCapture;
+    /** Only set if packet lines get microsecond timestamps. */
+    private TimestampEncoder.MonotonicClock clock;
 
     public ConnectionLog(INetworkManager connection) {
         this.connection = connection;
     }
 
     public boolean isRunning() {
-        return logWriter != null;
+        return running;
     }
 
     public boolean start() {
@@ -51,62 +65,188 @@ public class ConnectionLog {
         } else if (Controller.getOptions().newFilePerServer) {
             suffix += "_" + connectionAddress;
         }
-        File logFile = new File(outputDir, "packets" + suffix + ".txt");
+        String baseName = "packets" + suffix;
+        boolean segmented = Controller.getOptions().mappedSegmentSize > 0 || Controller.getOptions().isRotationEnabled() ||
+                Controller.getOptions().compressedBlockSize > 0;
 
-        // open file
-        boolean fileExists = logFile.exists();
+        // open file(s)
+        boolean fileExists = !segmented && new File(outputDir, baseName + ".txt").exists();
         try {
-            logWriter = new PrintWriter(new BufferedWriter(new FileWriter(logFile, true)));
+            if (Controller.getOptions().outputText) {
+                logWriter = openOutput(outputDir, baseName, ".txt");
+            }
+            if (Controller.getOptions().outputBinary) {
+                boolean captureFileIsNew = segmented || new File(outputDir, baseName + ".mcpcap").length() == 0L;
+                captureWriter = new CaptureWriter(openOutput(outputDir, baseName, ".mcpcap"), captureFileIsNew);
+            }
         } catch (IOException e) {
             Controller.getEventLog().log(Level.SEVERE, "unable to open packet log file for writing", e);
-            logWriter = null;
+            closeOutputs();
             return false;
         }
 
-        if (Controller.getOptions().statsDump) {
+        if (Controller.getOptions().statsDump || !Controller.getOptions().captureConditions.isEmpty()) {
             // start recording stats
             try {
                 stats = new StatRecorder(connectionAddress, now, new File(outputDir, "stats" + suffix + ".txt"));
-                stats.start();
+                if (Controller.getOptions().statsDump) {
+                    stats.start();
+                }
             } catch (Exception e) {
                 Controller.getEventLog().log(Level.SEVERE, "unable to start recording stats", e);
-                logWriter.close();
-                logWriter = null;
+                closeOutputs();
                 return false;
             }
         }
 
-        if (fileExists) {
-            // in case the last line ended abruptly due to a client crash
-            logWriter.println();
-            logWriter.println();
+        if (logWriter != null && Controller.getOptions().deltaRendering) {
+            deltaState = new DeltaState(Controller.getOptions().deltaKeyframeInterval,
+                    Controller.getOptions().deltaMaxEntities);
+            // each new segment/block starts with everything logged in full
+            logWriter.setSegmentListener(deltaState);
+        }
+
+        if (logWriter != null && Controller.getOptions().coalesceWindow > 0L) {
+            coalescer = new PacketCoalescer(Controller.getOptions().coalesceWindow);
+        }
+        if (logWriter != null && Controller.getOptions().trajectoryTimeout > 0L) {
+            // the consumer thread runs behind the world, so it can't look up where entities were
+            movementSummarizer = new MovementSummarizer(Controller.getOptions().trajectoryTimeout,
+                    Controller.getOptions().trajectoryTolerance, !Controller.getOptions().asyncCapture,
+                    new MovementSummarizer.LineSink() {
+                @Override
+                public void writeLine(LineBuffer buffer, long timestamp) {
+                    if (coalescer != null) {
+                        // keep the repeat summary right after the line it refers to
+                        coalescer.endRun();
+                        logCoalescerSummary();
+                    }
+                    logLine(buffer, timestamp);
+                }
+            });
+        }
+
+        if (Controller.getOptions().isFollowingEntities()) {
+            entityFollower = new EntityFollower(outputDir, "trace" + suffix, Controller.getOptions());
+        }
+
+        if (logWriter != null) {
+            synchronized (logWriterLock) {
+                LineBuffer buffer = LineBuffer.get();
+                if (fileExists) {
+                    // in case the last line ended abruptly due to a client crash
+                    buffer.begin();
+                    logLine(buffer, now);
+                    logLine(buffer, now);
+                }
+
+                StringBuilder line = buffer.begin();
+                long timestamp = System.currentTimeMillis();
+                PacketLoggersBase.logTimestamp(line, timestamp);
+                line.append(" new connection to ").append(connectionAddress);
+                logLine(buffer, timestamp);
+                flushOutputs();
+            }
+        }
+        if (captureWriter != null) {
+            try {
+                captureWriter.writeSessionStart(System.currentTimeMillis(), "new connection to " + connectionAddress);
+                captureWriter.flush();
+            } catch (IOException e) {
+                Controller.getEventLog().log(Level.SEVERE, "unable to write packet capture", e);
+                closeOutputs();
+                return false;
+            }
+        }
+        if (!Controller.getOptions().captureConditions.isEmpty()) {
+            // count-only until a condition holds
+            conditionalCapture = new ConditionalCapture(Controller.getOptions().captureConditions, stats,
+                    Controller.getOptions().captureDuration, Controller.getOptions().captureRateWindow, now,
+                    new ConditionalCapture.Listener() {
+                @Override
+                public void onCaptureStart(String reason, long timestamp) {
+                    logNoteInOrder("capture started: " + reason, timestamp);
+                }
+                @Override
+                public void onCaptureStop(long timestamp) {
+                    logNoteInOrder("capture stopped", timestamp);
+                }
+            });
+        }
+        if (Controller.getOptions().flightRecorderSize > 0) {
+            flightRecorder = new FlightRecorder(outputDir, "flight" + suffix, Controller.getOptions());
+            flightRecorder.start();
+        }
+        if (Controller.getOptions().timestampMicros) {
+            clock = new TimestampEncoder.MonotonicClock();
         }
+        running = true;
 
-        StringBuilder line = new StringBuilder();
-        PacketLoggersBase.logTimestamp(line, System.currentTimeMillis());
-        line.append(" new connection to ").append(connectionAddress);
-        logWriter.println(line.toString());
-        logWriter.flush();
+        boolean flushing = Controller.getOptions().flushInterval > 0 && !Controller.getOptions().flushAfterEveryPacket;
+        if (flushing || conditionalCapture != null) {
+            startFlusherThread(flushing);
+        }
 
-        if (Controller.getOptions().flushInterval > 0 && !Controller.getOptions().flushAfterEveryPacket) {
-            startFlusherThread();
+        if (Controller.getOptions().asyncCapture) {
+            // hand packets off to a dedicated thread for filtering, rendering, and writing
+            captureQueue = new CaptureQueue(Controller.getOptions().asyncQueueSize, this);
+            captureQueue.start();
+            if (stats != null) {
+                stats.setCaptureQueue(captureQueue);
+            }
         }
 
         return true;
     }
 
-    private void startFlusherThread() {
+    /**
+     * Open either a classic append-only file, a block-compressed file, or a
+     * set of segments (rotated and/or memory-mapped), depending on options.
+     */
+    private static LogOutput openOutput(File outputDir, String baseName, String extension) throws IOException {
+        Options options = Controller.getOptions();
+        if (options.compressedBlockSize > 0) {
+            return new BlockCompressedLogOutput(outputDir, baseName, extension, options.compressedBlockSize);
+        } else if (options.mappedSegmentSize > 0) {
+            return new MappedLogOutput(outputDir, baseName, extension, options.mappedSegmentSize,
+                    options.rotateBytes, options.rotateMillis, options.rotatePackets);
+        } else if (options.isRotationEnabled()) {
+            return new SegmentedLogOutput.BufferedSegments(outputDir, baseName, extension,
+                    options.rotateBytes, options.rotateMillis, options.rotatePackets);
+        }
+        return new LogOutput.StreamLogOutput(new BufferedOutputStream(
+                new FileOutputStream(new File(outputDir, baseName + extension), true), 65536));
+    }
+
+    /**
+     * @param flushing false if the thread is only needed to end conditional
+     *                 captures on time
+     */
+    private void startFlusherThread(final boolean flushing) {
         flusherThread = new Thread(Controller.NAME + " packet log flusher") {
             @Override
             public void run() {
+                long nextFlush = 0L;
                 while (isRunning()) {
-                    synchronized (logWriterLock) {
-                        if (logWriter != null) {
-                            logWriter.flush();
+                    long now = System.currentTimeMillis();
+                    if (conditionalCapture != null) {
+                        // otherwise a capture on a quiet connection only stops at the next packet
+                        conditionalCapture.onTimer(now);
+                    }
+                    if (flushing && now >= nextFlush) {
+                        nextFlush = now + Math.max(1000, Controller.getOptions().flushInterval);
+                        synchronized (logWriterLock) {
+                            if (coalescer != null && logWriter != null) {
+                                // otherwise a run on a quiet connection waits for the next packet
+                                coalescer.endExpiredRun(now);
+                                logCoalescerSummary();
+                            }
+                            flushOutputs();
                         }
                     }
                     try {
-                        sleep(Math.max(1000, Controller.getOptions().flushInterval));
+                        sleep(conditionalCapture != null ? ConditionalCapture.TICK
+                                : Math.max(1000, Controller.getOptions().flushInterval));
                     } catch (InterruptedException e) {
                         return;
                     }
@@ -120,13 +260,47 @@ public class ConnectionLog {
         if (isRunning()) {
             Controller.getEventLog().info("stopping log: " + reason);
 
+            if (flightRecorder != null) {
+                // "disconnect.timeout", "disconnect.endOfStream", etc., but not "Quitting"
+                if (reason.startsWith("disconnect.")) {
+                    flightRecorder.trigger("closed");
+                }
+                flightRecorder.stop();
+            }
+
+            if (captureQueue != null) {
+                // let the consumer thread finish writing everything already enqueued
+                captureQueue.stop();
+                StringBuilder summary = new StringBuilder("async capture stats: ");
+                captureQueue.logStats(summary);
+                Controller.getEventLog().info(summary.toString());
+            }
+
             synchronized (logWriterLock) {
-                StringBuilder line = new StringBuilder();
-                PacketLoggersBase.logTimestamp(line, System.currentTimeMillis());
-                line.append(" connection closed: ").append(reason);
-                logWriter.println(line.toString());
-                logWriter.close();
-                logWriter = null;
+                running = false;
+                long now = System.currentTimeMillis();
+                if (logWriter != null) {
+                    if (movementSummarizer != null) {
+                        movementSummarizer.flushAll();
+                    }
+                    if (coalescer != null) {
+                        coalescer.endRun();
+                        logCoalescerSummary();
+                    }
+                    LineBuffer buffer = LineBuffer.get();
+                    StringBuilder line = buffer.begin();
+                    PacketLoggersBase.logTimestamp(line, now);
+                    line.append(" connection closed: ").append(reason);
+                    logLine(buffer, now);
+                }
+                if (captureWriter != null) {
+                    try {
+                        captureWriter.writeNote(now, "connection closed: " + reason);
+                    } catch (IOException e) {
+                        Controller.getEventLog().log(Level.SEVERE, "unable to write packet capture", e);
+                    }
+                }
+                closeOutputs();
             }
 
             if (stats != null) {
@@ -135,57 +309,365 @@ public class ConnectionLog {
         }
     }
 
+    private void flushOutputs() {
+        if (entityFollower != null) {
+            entityFollower.flush();
+        }
+        if (logWriter != null) {
+            try {
+                logWriter.flush();
+            } catch (IOException e) {
+                Controller.getEventLog().log(Level.SEVERE, "unable to flush packet log", e);
+            }
+        }
+        if (captureWriter != null) {
+            try {
+                captureWriter.flush();
+            } catch (IOException e) {
+                Controller.getEventLog().log(Level.SEVERE, "unable to flush packet capture", e);
+            }
+        }
+    }
+
+    private void closeOutputs() {
+        if (entityFollower != null) {
+            // the network threads may still be using it, so keep it around, closed
+            entityFollower.close();
+        }
+        if (logWriter != null) {
+            try {
+                logWriter.close();
+            } catch (IOException e) {
+                Controller.getEventLog().log(Level.SEVERE, "unable to close packet log", e);
+            }
+            logWriter = null;
+        }
+        if (captureWriter != null) {
+            try {
+                captureWriter.close();
+            } catch (IOException e) {
+                Controller.getEventLog().log(Level.SEVERE, "unable to close packet capture", e);
+            }
+            captureWriter = null;
+        }
+    }
+
     public void onPacket(PacketDirection dir, Packet packet) {
         if (!isRunning()) {
             return;
         }
 
+        Options options = Controller.getOptions();
+        int verbosity = options.getVerbosity(dir, packet.getPacketId());
+        if (verbosity == Options.VERBOSITY_OFF) {
+            return;
+        }
+
         if (stats != null) {
             // increment stats
             stats.record(dir, packet.getPacketId(), packet.getPacketSize());
         }
 
-        // filter packets
-        if (!Controller.packetFilter.shouldLogPacket(dir, packet)) {
+        long micros = -1L;
+        long timestamp;
+        if (clock != null) {
+            micros = clock.currentTimeMicros();
+            timestamp = micros / 1000L;
+        } else {
+            timestamp = System.currentTimeMillis();
+        }
+        if (entityFollower != null) {
+            // traces get every packet for the followed entities, regardless of filters
+            entityFollower.onPacket(dir, packet, timestamp);
+        }
+        if (flightRecorder != null) {
+            flightRecorder.record(dir, packet, timestamp);
+        }
+        if (conditionalCapture != null) {
+            conditionalCapture.onPacket(dir, packet, timestamp);
+            if (!conditionalCapture.isActive()) {
+                return;
+            }
+        }
+
+        // Movement packets that aren't logged still go through with weight 0
+        // when summarizing trajectories, which add up relative moves. Except
+        // filtered ones with async capture: the consumer thread can't look up
+        // where entities are anyway, so they'd only take up room in the queue.
+        int packetId = packet.getPacketId();
+        boolean summarized = movementSummarizer != null && MovementSummarizer.isMovement(packetId);
+        int weight = 1;
+        if (verbosity == Options.VERBOSITY_COUNT_ONLY || !options.packetFilter.matches(dir, packet)) {
+            if (!summarized || captureQueue != null) {
+                return;
+            }
+            weight = 0;
+        } else if (options.sampling) {
+            weight = PacketSampler.get().sample(packetId, options.getSamplingInterval(packetId),
+                    options.getRateLimit(packetId), timestamp);
+        }
+        if (weight == 0 && !summarized) {
             return;
         }
 
-        // assemble and write log line
-        StringBuilder line = new StringBuilder(160);
-        logPacket(line, dir, packet);
-        String lineString = line.toString();
-        if (flusherThread == null) {
-            logLine(lineString);
-        } else {
-            synchronized (logWriterLock) {
-                logLine(lineString);
+        if (captureQueue != null) {
+            // the consumer thread takes it from here
+            captureQueue.offer(dir, packet, clock != null ? micros : timestamp, weight);
+            return;
+        }
+
+        writePacket(dir, packet, timestamp, micros, verbosity, weight);
+    }
+
+    /**
+     * Called on the CaptureQueue's consumer thread.
+     * @param time in microseconds if there's a clock, otherwise milliseconds
+     */
+    @Override
+    public void onPacket(PacketDirection dir, Packet packet, long time, int weight) {
+        int verbosity = Controller.getOptions().getVerbosity(dir, packet.getPacketId());
+        if (weight == 0 || verbosity >= Options.VERBOSITY_HEADER_ONLY) {
+            if (clock != null) {
+                writePacket(dir, packet, time / 1000L, time, verbosity, weight);
+            } else {
+                writePacket(dir, packet, time, -1L, verbosity, weight);
             }
         }
     }
 
-    private void logLine(String line) {
-        logWriter.println(line.toString());
+    /** Called on the CaptureQueue's consumer thread. */
+    @Override
+    public void onNote(String text, long timestamp) {
+        logNote(text, timestamp);
+    }
+
+    /** Called on the CaptureQueue's consumer thread. */
+    @Override
+    public void onBatchEnd() {
         if (Controller.getOptions().flushAfterEveryPacket) {
-            logWriter.flush();
+            // flushing once per batch rather than once per line keeps up with bursts
+            synchronized (logWriterLock) {
+                flushOutputs();
+            }
         }
     }
 
-    private static void logPacket(StringBuilder line, PacketDirection dir, Packet packet) {
-        // start off the line with timestamp, direction, packet id, and packet name
-        PacketLoggersBase.logTimestamp(line, System.currentTimeMillis());
-        line.append(' ').append(dir);
-        line.append(" 0x").append(String.format("%02X", packet.getPacketId()));
-        String packetName = PacketInfo.getPacketShortName(packet.getPacketId());
-        if (packetName == null) {
-            packetName = "????????????";
-            Controller.getEventLog().severe("packet missing from PacketInfo: " + packet.getPacketId());
+    /**
+     * @param micros the same timestamp in microseconds, or -1 if the log
+     *               is in milliseconds
+     * @param verbosity at least VERBOSITY_HEADER_ONLY
+     * @param weight number of packets this one stands in for, see PacketSampler,
+     *               or 0 for a movement packet that only feeds the trajectories
+     */
+    private void writePacket(PacketDirection dir, Packet packet, long timestamp, long micros, int verbosity,
+            int weight) {
+        if (weight == 0) {
+            synchronized (logWriterLock) {
+                if (logWriter != null) {
+                    movementSummarizer.offer(dir, packet, timestamp, 0);
+                }
+            }
+            return;
+        }
+        CaptureWriter capture = captureWriter;
+        if (capture != null) {
+            // binary capture defers rendering, except for the few packet
+            // types it has to store as text: render those before locking
+            LineBuffer text = null;
+            if (capture.needsText(packet.getPacketId())) {
+                text = LineBuffer.get();
+                CaptureWriter.renderText(text, dir, packet, verbosity);
+            }
+            synchronized (logWriterLock) {
+                if (captureWriter != null) {
+                    try {
+                        captureWriter.writePacket(dir, packet, timestamp, verbosity, text);
+                        if (Controller.getOptions().flushAfterEveryPacket && captureQueue == null) {
+                            captureWriter.flush();
+                        }
+                    } catch (IOException e) {
+                        Controller.getEventLog().log(Level.SEVERE, "unable to write packet capture", e);
+                    }
+                }
+            }
+        }
+        if (logWriter == null) {
+            return;
+        }
+
+        // assemble and write log line, reusing this thread's buffers
+        LineBuffer buffer = LineBuffer.get();
+        if (coalescer != null || movementSummarizer != null) {
+            // stateful: everything happens with the lock held
+            synchronized (logWriterLock) {
+                if (logWriter == null) {
+                    return;
+                }
+                if (movementSummarizer != null && movementSummarizer.offer(dir, packet, timestamp, weight)) {
+                    return;
+                }
+                int bodyStart = logPacket(buffer, dir, packet, timestamp, micros, verbosity, weight);
+                if (coalescer != null) {
+                    if (coalescer.isRepeat(dir, packet.getPacketId(), buffer.getLine(), bodyStart,
+                            !buffer.hasDeferredHexDumps(), timestamp)) {
+                        return;
+                    }
+                    logCoalescerSummary();
+                }
+                logLine(buffer, timestamp);
+                if (Controller.getOptions().flushAfterEveryPacket && captureQueue == null) {
+                    flushOutputs();
+                }
+            }
+            return;
         }
-        line.append(' ').append(packetName);
-        for (int pad = packetName.length(); pad < 13; pad++) {
-            line.append(' ');
+        DeltaState delta = deltaState;
+        int generation = delta == null ? 0 : delta.getGeneration();
+        logPacket(buffer, dir, packet, timestamp, micros, verbosity, weight);
+        // rendering is done; only the write itself is serialized
+        synchronized (logWriterLock) {
+            if (logWriter != null) {
+                if (delta != null && delta.getGeneration() != generation) {
+                    // a new segment started since the packet was diffed, so
+                    // it may only have the changes; diff it against the new one
+                    logPacket(buffer, dir, packet, timestamp, micros, verbosity, weight);
+                }
+                logLine(buffer, timestamp);
+                if (Controller.getOptions().flushAfterEveryPacket && captureQueue == null) {
+                    flushOutputs();
+                }
+            }
         }
+    }
 
-        // packet-specific loggers handle the rest of the line's contents
-        Controller.packetLoggers.dispatch(line, dir, packet);
+    /**
+     * Render the packet into the buffer, in as much detail as the verbosity
+     * calls for.
+     * @return where the packet logger's output starts in the line
+     */
+    private int logPacket(LineBuffer buffer, PacketDirection dir, Packet packet, long timestamp, long micros,
+            int verbosity, int weight) {
+        StringBuilder line = buffer.beginStreamed(packet.getPacketId(), deltaState);
+        if (micros >= 0L) {
+            PacketLoggersBase.logTimestampMicros(line, micros);
+            logPacketIdColumns(line, dir, packet.getPacketId());
+        } else {
+            logPacketHeader(line, dir, packet.getPacketId(), timestamp);
+        }
+        int bodyStart = line.length();
+
+        if (verbosity == Options.VERBOSITY_HEADER_ONLY) {
+            PacketLoggersBase.logApproximatePacketPayloadSize(line, packet);
+        } else {
+            // packet-specific loggers handle the rest of the line's contents
+            Controller.packetLoggerRegistry.dispatch(line, dir, packet);
+        }
+        if (weight > 1) {
+            line.append(" weight=").append(weight);
+        }
+        return bodyStart;
+    }
+
+    /**
+     * Encode the buffer's line and write it, followed by a line separator.
+     * The caller must hold logWriterLock: none of the LogOutputs are
+     * thread-safe, and lines with hex dumps take several writes.
+     */
+    private void logLine(LineBuffer buffer, long timestamp) {
+        try {
+            buffer.writeLine(logWriter, LINE_SEPARATOR);
+            logWriter.endRecord(timestamp);
+        } catch (IOException e) {
+            // like PrintWriter, keep going, but at least say something once
+            if (!logWriterFailed) {
+                logWriterFailed = true;
+                Controller.getEventLog().log(Level.SEVERE, "unable to write packet log", e);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #logNote}, but with async-capture, queue the note behind
+     * the packets that are still waiting to be written.
+     */
+    private void logNoteInOrder(String text, long timestamp) {
+        CaptureQueue queue = captureQueue;
+        if (queue != null && queue.offerNote(text, timestamp)) {
+            return;
+        }
+        logNote(text, timestamp);
+    }
+
+    /**
+     * Write a non-packet line, e.g. "capture started: ...", to both outputs.
+     * Anything held back (a run of repeats, trajectories) is written first, so
+     * it ends up on the right side of the note.
+     */
+    private void logNote(String text, long timestamp) {
+        synchronized (logWriterLock) {
+            if (logWriter != null) {
+                if (movementSummarizer != null) {
+                    movementSummarizer.flushAll();
+                }
+                if (coalescer != null) {
+                    coalescer.endRun();
+                    logCoalescerSummary();
+                }
+                LineBuffer buffer = LineBuffer.get();
+                StringBuilder line = buffer.begin();
+                PacketLoggersBase.logTimestamp(line, timestamp);
+                line.append(' ').append(text);
+                logLine(buffer, timestamp);
+            }
+            if (captureWriter != null) {
+                try {
+                    captureWriter.writeNote(timestamp, text);
+                } catch (IOException e) {
+                    Controller.getEventLog().log(Level.SEVERE, "unable to write packet capture", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the summary line for a run of repeated packets that just ended,
+     * if any. Summaries are rare, so this doesn't bother reusing buffers.
+     */
+    private void logCoalescerSummary() {
+        StringBuilder summary = coalescer.takeSummary();
+        if (summary == null) {
+            return;
+        }
+        try {
+            logWriter.write(summary.toString().getBytes(CHARSET));
+            logWriter.write(LINE_SEPARATOR);
+            logWriter.endRecord(coalescer.getSummaryTimestamp());
+        } catch (IOException e) {
+            if (!logWriterFailed) {
+                logWriterFailed = true;
+                Controller.getEventLog().log(Level.SEVERE, "unable to write packet log", e);
+            }
+        }
+    }
+
+    /**
+     * Start off the line with timestamp, direction, packet id, and packet name.
+     */
+    public static void logPacketHeader(StringBuilder line, PacketDirection dir, int packetId, long timestamp) {
+        PacketLoggersBase.logTimestamp(line, timestamp);
+        logPacketIdColumns(line, dir, packetId);
+    }
+
+    private static void logPacketIdColumns(StringBuilder line, PacketDirection dir, int packetId) {
+        line.append(' ').append(dir);
+        line.append(" 0x");
+        NumberFormatter.appendHexByte(line, packetId);
+        PacketInfo packetInfo = PacketInfo.get(packetId);
+        if (packetInfo == null) {
+            Controller.getEventLog().severe("packet missing from PacketInfo: " + packetId);
+            line.append(" ???????????? ");
+        } else {
+            line.append(packetInfo.logColumn);
+        }
     }
 }
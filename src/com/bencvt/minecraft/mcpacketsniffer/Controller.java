@@ -23,8 +23,8 @@ public class Controller implements ClientPacketEventListener {
 
     private static Controller instance;
 
-    public static final PacketFilter packetFilter = new PacketFilter();
     public static final PacketLoggers packetLoggers = new PacketLoggers();
+    public static final PacketLoggerRegistry packetLoggerRegistry = new PacketLoggerRegistry(packetLoggers);
     private final Logger eventLog;
     private Options options;
     private final File baseDir;
@@ -52,6 +52,27 @@ public class Controller implements ClientPacketEventListener {
         PacketHooks.register(this);
     }
 
+    /**
+     * Set up for a tool that runs outside of Minecraft, e.g. CaptureConverter:
+     * events go to the console, options are read from options.txt in baseDir
+     * if there is one (otherwise the defaults are used), and nothing is
+     * hooked into the game or watched for changes. Must be called before
+     * anything else uses the Controller.
+     */
+    public static void initStandalone(File baseDir) {
+        if (instance != null) {
+            throw new IllegalStateException("already initialized");
+        }
+        new Controller(baseDir);
+    }
+
+    private Controller(File baseDir) {
+        instance = this;
+        this.baseDir = baseDir;
+        eventLog = Logger.getLogger(NAME);
+        options = Options.loadStandalone();
+    }
+
     public static Logger getEventLog() {
         return getInstance().eventLog;
     }
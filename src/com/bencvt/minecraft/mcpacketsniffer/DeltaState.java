@@ -0,0 +1,246 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import java.util.List;
+
+import net.minecraft.src.ChunkCoordinates;
+import net.minecraft.src.ItemStack;
+import net.minecraft.src.WatchableObject;
+
+/**
+ * Remembers the last logged window contents and entity metadata values for a
+ * connection so the packet loggers can log only what changed.
+ * <p>
+ * Every value is reduced to a 64-bit fingerprint (exact for everything except
+ * strings and NBT data, which are hashed). Windows are indexed directly by
+ * window id. Entities get a fixed number of slots; once they're all in use,
+ * the entity that was seen first is forgotten, and simply gets logged in full
+ * again the next time it shows up.
+ * <p>
+ * Each window and entity is logged in full every keyframeInterval packets, as
+ * well as at the start of every log segment/block, so any part of the log can
+ * be read on its own.
+ * <p>
+ * Callers must hold the lock on this object while diffing and logging a
+ * packet, since {@link #getChanged} is shared.
+ */
+public class DeltaState implements LogOutput.SegmentListener {
+    public static final int KEYFRAME = -1;
+    /** Metadata indexes are 5 bits. */
+    private static final int MAX_METADATA_INDEXES = 32;
+    private static final int TAG_BYTE = 1;
+    private static final int TAG_SHORT = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_FLOAT = 4;
+    private static final int TAG_STRING = 5;
+    private static final int TAG_ITEM = 6;
+    private static final int TAG_COORDS = 7;
+    private static final int TAG_OTHER = 8;
+    private static final long VALUE_MASK = (1L << 60) - 1L;
+
+    private final int keyframeInterval;
+    private final int maxEntities;
+
+    private final long[][] windowSlots = new long[256][];
+    private final int[] windowPackets = new int[256];
+
+    private IntIntMap entitySlots;
+    private int[] slotEntityIds;
+    private long[] metadataValues;
+    private int[] metadataPresent;
+    private int[] entityPackets;
+    private int usedSlots;
+    private int nextSlot;
+    private int generation;
+
+    private int[] changed = new int[64];
+
+    public DeltaState(int keyframeInterval, int maxEntities) {
+        this.keyframeInterval = keyframeInterval;
+        this.maxEntities = maxEntities;
+    }
+
+    /**
+     * @return the indexes of the changed slots/values found by the last diff;
+     *         only the first n are valid
+     */
+    public int[] getChanged() {
+        return changed;
+    }
+
+    /**
+     * Compare a window's contents to the last time it was logged, and
+     * remember the new contents.
+     * @return KEYFRAME if the packet should be logged in full, otherwise the
+     *         number of changed slots, listed in {@link #getChanged}
+     */
+    public synchronized int diffWindow(int windowId, ItemStack[] items) {
+        int id = windowId & 0xFF;
+        long[] slots = windowSlots[id];
+        boolean keyframe = slots == null || slots.length != items.length || ++windowPackets[id] >= keyframeInterval;
+        if (keyframe) {
+            if (slots == null || slots.length != items.length) {
+                slots = new long[items.length];
+                windowSlots[id] = slots;
+            }
+            windowPackets[id] = 0;
+        }
+        ensureChanged(items.length);
+        int n = 0;
+        for (int i = 0; i < items.length; i++) {
+            long fingerprint = fingerprint(items[i]);
+            if (slots[i] != fingerprint) {
+                slots[i] = fingerprint;
+                changed[n++] = i;
+            }
+        }
+        return keyframe ? KEYFRAME : n;
+    }
+
+    /**
+     * Compare entity metadata values to the last ones logged for that entity,
+     * and remember the new values.
+     * @param keyframe true to log in full regardless, e.g. for spawn packets
+     * @return KEYFRAME if the packet should be logged in full, otherwise the
+     *         number of changed values; {@link #getChanged} lists their
+     *         positions in the metadata list
+     */
+    public synchronized int diffMetadata(int entityId, List<WatchableObject> metadata, boolean keyframe) {
+        if (entitySlots == null) {
+            entitySlots = new IntIntMap(maxEntities);
+            slotEntityIds = new int[maxEntities];
+            metadataValues = new long[maxEntities * MAX_METADATA_INDEXES];
+            metadataPresent = new int[maxEntities];
+            entityPackets = new int[maxEntities];
+        }
+        int slot = entitySlots.get(entityId, -1);
+        if (slot < 0) {
+            slot = allocateSlot(entityId);
+            keyframe = true;
+        } else if (++entityPackets[slot] >= keyframeInterval) {
+            keyframe = true;
+        }
+        if (keyframe) {
+            entityPackets[slot] = 0;
+            // e.g. a respawn: values the new metadata doesn't include are
+            // no longer known
+            metadataPresent[slot] = 0;
+        }
+        int size = metadata.size();
+        ensureChanged(size);
+        int base = slot * MAX_METADATA_INDEXES;
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            WatchableObject w = metadata.get(i);
+            int index = w.getDataValueId() & (MAX_METADATA_INDEXES - 1);
+            long fingerprint = fingerprint(w.getObject());
+            int bit = 1 << index;
+            if ((metadataPresent[slot] & bit) == 0 || metadataValues[base + index] != fingerprint) {
+                metadataPresent[slot] |= bit;
+                metadataValues[base + index] = fingerprint;
+                changed[n++] = i;
+            }
+        }
+        return keyframe ? KEYFRAME : n;
+    }
+
+    /**
+     * @return a number that changes whenever {@link #clear} is called, so a
+     *         packet diffed before a segment started can be told apart
+     */
+    public synchronized int getGeneration() {
+        return generation;
+    }
+
+    /** Forget everything, so the next packets are logged in full. */
+    public synchronized void clear() {
+        generation++;
+        for (int id = 0; id < 256; id++) {
+            windowSlots[id] = null;
+            windowPackets[id] = 0;
+        }
+        if (entitySlots != null) {
+            entitySlots.clear();
+            usedSlots = 0;
+            nextSlot = 0;
+        }
+    }
+
+    @Override
+    public void onSegmentStart(LogOutput output) {
+        clear();
+    }
+
+    private int allocateSlot(int entityId) {
+        int slot = nextSlot;
+        nextSlot = (nextSlot + 1) % maxEntities;
+        if (usedSlots < maxEntities) {
+            usedSlots++;
+        } else {
+            // evict the oldest entity
+            entitySlots.remove(slotEntityIds[slot]);
+        }
+        entitySlots.put(entityId, slot);
+        slotEntityIds[slot] = entityId;
+        metadataPresent[slot] = 0;
+        return slot;
+    }
+
+    private void ensureChanged(int length) {
+        if (changed.length < length) {
+            changed = new int[Math.max(length, changed.length * 2)];
+        }
+    }
+
+    //
+    // Fingerprints
+    //
+
+    private static long tagged(int tag, long value) {
+        return ((long) tag << 60) | (value & VALUE_MASK);
+    }
+
+    private static long fingerprint(ItemStack itemStack) {
+        if (itemStack == null) {
+            return 0L;
+        }
+        long value = ((itemStack.itemID & 0xFFFFL) << 32)
+                | ((itemStack.getItemDamage() & 0xFFFFL) << 16)
+                | (itemStack.stackSize & 0xFFL);
+        if (itemStack.stackTagCompound != null) {
+            value ^= NBTLogger.hash(itemStack.stackTagCompound) << 8;
+        }
+        return tagged(TAG_ITEM, value);
+    }
+
+    private static long fingerprint(Object value) {
+        if (value instanceof Byte) {
+            return tagged(TAG_BYTE, ((Byte) value).byteValue());
+        } else if (value instanceof Short) {
+            return tagged(TAG_SHORT, ((Short) value).shortValue());
+        } else if (value instanceof Integer) {
+            return tagged(TAG_INT, ((Integer) value).intValue());
+        } else if (value instanceof Float) {
+            return tagged(TAG_FLOAT, Float.floatToRawIntBits(((Float) value).floatValue()));
+        } else if (value instanceof String) {
+            return tagged(TAG_STRING, hash((String) value));
+        } else if (value instanceof ItemStack) {
+            return fingerprint((ItemStack) value);
+        } else if (value instanceof ChunkCoordinates) {
+            ChunkCoordinates coords = (ChunkCoordinates) value;
+            return tagged(TAG_COORDS, ((coords.posX & 0x3FFFFFFL) << 34)
+                    | ((coords.posY & 0xFFL) << 26)
+                    | (coords.posZ & 0x3FFFFFFL));
+        }
+        return tagged(TAG_OTHER, value == null ? 0L : hash(value.toString()));
+    }
+
+    /** 64-bit FNV-1a. */
+    private static long hash(String s) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,219 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.logging.Level;
+
+import net.minecraft.src.EntityList;
+import net.minecraft.src.Packet;
+import net.minecraft.src.Packet20NamedEntitySpawn;
+import net.minecraft.src.Packet24MobSpawn;
+
+/**
+ * "Follow entity" mode: every packet referring to one of the followed
+ * entities is also written to a small per-entity trace file, e.g.
+ * logs/trace_eid1234.txt, regardless of the packet's verbosity. Like the main
+ * log, it only has the fields selected by packet-fields.
+ * <p>
+ * Entities are followed if listed in follow-entities, or if they're spawned
+ * with one of the follow-entity-types. The latter are only followed until
+ * they're destroyed, and at most {@link #MAX_OPEN_TRACES} trace files are kept
+ * open at once: the least recently written one is closed, and reopened (for
+ * appending) if needed again.
+ * <p>
+ * Entity ids are pulled out of the packets using {@link PacketEntityIds},
+ * without rendering anything, and checked against a copy-on-write
+ * {@link IntSet}, so packets that don't match cost next to nothing and never
+ * lock. Only matching packets are rendered, on the calling thread.
+ * <p>
+ * Each EntityFollower is owned by a ConnectionLog.
+ */
+public class EntityFollower {
+    public static final int MAX_OPEN_TRACES = 64;
+
+    private static final ThreadLocal<int[]> entityIds = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[16];
+        }
+    };
+
+    private final File outputDir;
+    private final String baseName;
+    private final IntSet mobTypes;
+    private final List<String> mobNames;
+    private final boolean followPlayers;
+
+    /** Copy-on-write, so membership checks never have to lock. */
+    private volatile IntSet followed;
+
+    // All of the following are guarded by this.
+    /** Followed because of their type, so unfollowed when destroyed. */
+    private final IntSet spawnedFollowed = new IntSet();
+    /** Entity id -> open trace, least recently written first. */
+    private final LinkedHashMap<Integer, OutputStream> outputs =
+            new LinkedHashMap<Integer, OutputStream>(16, 0.75f, true);
+    private boolean failed;
+    private boolean closed;
+
+    /**
+     * @param baseName trace file names start with this, e.g. "trace"
+     */
+    public EntityFollower(File outputDir, String baseName, Options options) {
+        this.outputDir = outputDir;
+        this.baseName = baseName;
+        mobTypes = options.followMobTypes;
+        mobNames = options.followMobNames;
+        followPlayers = options.followPlayers;
+        IntSet initial = new IntSet();
+        for (int entityId : options.followEntities.toArray()) {
+            initial.add(entityId);
+        }
+        followed = initial;
+    }
+
+    /**
+     * Called by the network threads for every packet.
+     */
+    public void onPacket(PacketDirection dir, Packet packet, long timestamp) {
+        int packetId = packet.getPacketId();
+        if (!PacketEntityIds.hasEntityIds(packetId)) {
+            return;
+        }
+        int[] ids = entityIds.get();
+        int n = PacketEntityIds.extract(packet, ids);
+        if (n > ids.length) {
+            // e.g. a large destroy entity packet
+            ids = new int[n];
+            entityIds.set(ids);
+            PacketEntityIds.extract(packet, ids);
+        }
+        if (n == 1 && (packetId == 0x14 || packetId == 0x18) && isFollowedType(packet)) {
+            follow(ids[0]);
+        }
+        IntSet current = followed;
+        LineBuffer buffer = null;
+        for (int i = 0; i < n; i++) {
+            if (current.contains(ids[i])) {
+                if (buffer == null) {
+                    buffer = LineBuffer.get();
+                    // not streamed, so the same line can be written to several traces
+                    StringBuilder line = buffer.begin(packetId);
+                    ConnectionLog.logPacketHeader(line, dir, packetId, timestamp);
+                    Controller.packetLoggerRegistry.dispatch(line, dir, packet);
+                }
+                write(ids[i], buffer);
+            }
+        }
+        if (buffer != null && packetId == 0x1D && dir == PacketDirection.S2C) {
+            unfollowDestroyed(ids, n);
+        }
+    }
+
+    private boolean isFollowedType(Packet packet) {
+        if (packet instanceof Packet20NamedEntitySpawn) {
+            return followPlayers;
+        }
+        int type = ((Packet24MobSpawn) packet).type;
+        if (mobTypes.contains(type)) {
+            return true;
+        }
+        if (mobNames.isEmpty()) {
+            return false;
+        }
+        String name = EntityList.getStringFromID(type);
+        return name != null && mobNames.contains(name.toLowerCase());
+    }
+
+    private synchronized void follow(int entityId) {
+        if (closed || followed.contains(entityId)) {
+            return;
+        }
+        IntSet copy = new IntSet(followed.size() + 1);
+        for (int k : followed.toArray()) {
+            copy.add(k);
+        }
+        copy.add(entityId);
+        followed = copy;
+        spawnedFollowed.add(entityId);
+    }
+
+    private synchronized void unfollowDestroyed(int[] ids, int n) {
+        IntSet copy = null;
+        for (int i = 0; i < n; i++) {
+            if (!spawnedFollowed.remove(ids[i])) {
+                continue;
+            }
+            if (copy == null) {
+                copy = new IntSet(followed.size());
+                for (int k : followed.toArray()) {
+                    copy.add(k);
+                }
+            }
+            copy.remove(ids[i]);
+            closeOutput(outputs.remove(ids[i]));
+        }
+        if (copy != null) {
+            followed = copy;
+        }
+    }
+
+    private synchronized void write(int entityId, LineBuffer buffer) {
+        if (failed || closed) {
+            return;
+        }
+        try {
+            OutputStream output = outputs.get(entityId);
+            if (output == null) {
+                if (outputs.size() >= MAX_OPEN_TRACES) {
+                    Iterator<OutputStream> eldest = outputs.values().iterator();
+                    closeOutput(eldest.next());
+                    eldest.remove();
+                }
+                output = new BufferedOutputStream(new FileOutputStream(
+                        new File(outputDir, baseName + "_eid" + entityId + ".txt"), true), 8192);
+                outputs.put(entityId, output);
+            }
+            buffer.writeLine(output, ConnectionLog.LINE_SEPARATOR);
+        } catch (IOException e) {
+            // keep logging the main log, but give up on traces
+            failed = true;
+            Controller.getEventLog().log(Level.SEVERE, "unable to write entity trace", e);
+        }
+    }
+
+    private static void closeOutput(OutputStream output) {
+        if (output == null) {
+            return;
+        }
+        try {
+            output.close();
+        } catch (IOException e) {
+            Controller.getEventLog().log(Level.SEVERE, "unable to close entity trace", e);
+        }
+    }
+
+    public synchronized void flush() {
+        for (OutputStream output : outputs.values()) {
+            try {
+                output.flush();
+            } catch (IOException e) {
+                Controller.getEventLog().log(Level.SEVERE, "unable to flush entity trace", e);
+            }
+        }
+    }
+
+    public synchronized void close() {
+        closed = true;
+        for (OutputStream output : outputs.values()) {
+            closeOutput(output);
+        }
+        outputs.clear();
+    }
+}
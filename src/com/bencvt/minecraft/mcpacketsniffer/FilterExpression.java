@@ -0,0 +1,490 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.minecraft.src.Packet;
+import net.minecraft.src.Packet250CustomPayload;
+import net.minecraft.src.Packet3Chat;
+
+/**
+ * A packet-filter option, compiled into a predicate tree when the options are
+ * loaded. For example:
+ * <pre>
+ * s2c and (id 0x1E-0x23,0x28 and eid 1234,5678 or chunk -4,-4..3,3)
+ * not channel "MC|PingHost" and not chat "joined the game"
+ * </pre>
+ * Terms:
+ * <ul>
+ * <li>c2s, s2c: the packet's direction</li>
+ * <li>id 0x1F,0x22-0x23: packet ids and id ranges</li>
+ * <li>eid 1234,5678: any entity the packet refers to</li>
+ * <li>block x,y,z..x,y,z / chunk x,z..x,z / region x,z..x,z: the position
+ *     the packet refers to is in the box (inclusive)</li>
+ * <li>chat "text": chat messages containing the text</li>
+ * <li>channel "name": plugin messages on that channel</li>
+ * </ul>
+ * combined using not, and, or (in decreasing order of precedence), and
+ * parentheses. Adjacent terms are implicitly and'ed.
+ * <p>
+ * Every node knows which packet types and directions it could possibly match,
+ * and checks that 2x256 bitset before anything else, so type-specific terms
+ * (chat, channel, ...) only ever see packets of their own type. Expressions
+ * made only of direction and id terms are decided by the bitset alone.
+ * <p>
+ * Immutable once compiled, so safe to share between threads.
+ */
+public class FilterExpression {
+    private static final int WORDS = 2 * 256 / 64;
+
+    private final Node root;
+
+    private FilterExpression(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static FilterExpression compile(String source) {
+        Parser parser = new Parser(source);
+        if (!parser.hasMore()) {
+            return new FilterExpression(new DirectionNode(true, true));
+        }
+        Node root = parser.parseOr();
+        if (parser.hasMore()) {
+            throw parser.error("unexpected " + parser.peek());
+        }
+        return new FilterExpression(root);
+    }
+
+    public boolean matches(PacketDirection dir, Packet packet) {
+        return root.test(dir, packet);
+    }
+
+    //
+    // Predicate tree
+    //
+
+    private static abstract class Node {
+        /** Bit [direction * 256 + packetId] is set if the node could match. */
+        protected final long[] possible = new long[WORDS];
+        /** True if the node matches exactly the packets in possible. */
+        protected boolean exact;
+
+        public final boolean test(PacketDirection dir, Packet packet) {
+            int index = (dir == PacketDirection.S2C ? 256 : 0) + (packet.getPacketId() & 0xFF);
+            if ((possible[index >>> 6] & (1L << index)) == 0L) {
+                return false;
+            }
+            return exact || matches(dir, packet);
+        }
+
+        /**
+         * Only called through {@link #test}, i.e. for packets in possible,
+         * and only if the node isn't exact.
+         */
+        protected abstract boolean matches(PacketDirection dir, Packet packet);
+
+        protected void setPossible(int packetId) {
+            setPossible(PacketDirection.C2S, packetId);
+            setPossible(PacketDirection.S2C, packetId);
+        }
+
+        protected void setPossible(PacketDirection dir, int packetId) {
+            int index = (dir == PacketDirection.S2C ? 256 : 0) + packetId;
+            possible[index >>> 6] |= 1L << index;
+        }
+    }
+
+    private static class DirectionNode extends Node {
+        public DirectionNode(boolean c2s, boolean s2c) {
+            for (int id = 0; id < 256; id++) {
+                if (c2s) {
+                    setPossible(PacketDirection.C2S, id);
+                }
+                if (s2c) {
+                    setPossible(PacketDirection.S2C, id);
+                }
+            }
+            exact = true;
+        }
+
+        @Override
+        protected boolean matches(PacketDirection dir, Packet packet) {
+            return true; // decided by possible alone
+        }
+    }
+
+    private static class IdNode extends DirectionNode {
+        public IdNode(boolean[] ids) {
+            super(false, false);
+            for (int id = 0; id < 256; id++) {
+                if (ids[id]) {
+                    setPossible(id);
+                }
+            }
+        }
+    }
+
+    private static class NotNode extends Node {
+        private final Node operand;
+
+        public NotNode(Node operand) {
+            this.operand = operand;
+            for (int i = 0; i < WORDS; i++) {
+                possible[i] = operand.exact ? ~operand.possible[i] : -1L;
+            }
+            exact = operand.exact;
+        }
+
+        @Override
+        protected boolean matches(PacketDirection dir, Packet packet) {
+            return !operand.test(dir, packet);
+        }
+    }
+
+    private static class AndNode extends Node {
+        private final Node left;
+        private final Node right;
+
+        public AndNode(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+            for (int i = 0; i < WORDS; i++) {
+                possible[i] = left.possible[i] & right.possible[i];
+            }
+            exact = left.exact && right.exact;
+        }
+
+        @Override
+        protected boolean matches(PacketDirection dir, Packet packet) {
+            return left.test(dir, packet) && right.test(dir, packet);
+        }
+    }
+
+    private static class OrNode extends Node {
+        private final Node left;
+        private final Node right;
+
+        public OrNode(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+            for (int i = 0; i < WORDS; i++) {
+                possible[i] = left.possible[i] | right.possible[i];
+            }
+            exact = left.exact && right.exact;
+        }
+
+        @Override
+        protected boolean matches(PacketDirection dir, Packet packet) {
+            return left.test(dir, packet) || right.test(dir, packet);
+        }
+    }
+
+    private static class EntityNode extends Node {
+        private static final ThreadLocal<int[]> entityIds = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[16];
+            }
+        };
+
+        private final IntSet set;
+
+        public EntityNode(IntSet set) {
+            this.set = set;
+            for (int id = 0; id < 256; id++) {
+                if (PacketEntityIds.hasEntityIds(id)) {
+                    setPossible(id);
+                }
+            }
+        }
+
+        @Override
+        protected boolean matches(PacketDirection dir, Packet packet) {
+            int[] ids = entityIds.get();
+            int n = PacketEntityIds.extract(packet, ids);
+            if (n > ids.length) {
+                // e.g. a large destroy entity packet
+                ids = new int[n];
+                entityIds.set(ids);
+                PacketEntityIds.extract(packet, ids);
+            }
+            for (int i = 0; i < n; i++) {
+                if (set.contains(ids[i])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class BoxNode extends Node {
+        private static final ThreadLocal<int[]> position = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[3];
+            }
+        };
+
+        private final int minX, minY, minZ;
+        private final int maxX, maxY, maxZ;
+
+        public BoxNode(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.maxZ = maxZ;
+            for (int id = 0; id < 256; id++) {
+                if (PacketPositions.hasPosition(id)) {
+                    setPossible(id);
+                }
+            }
+        }
+
+        @Override
+        protected boolean matches(PacketDirection dir, Packet packet) {
+            int[] xyz = position.get();
+            switch (PacketPositions.extract(dir, packet, xyz)) {
+            case PacketPositions.BLOCK:
+                return xyz[0] >= minX && xyz[0] <= maxX
+                        && xyz[1] >= minY && xyz[1] <= maxY
+                        && xyz[2] >= minZ && xyz[2] <= maxZ;
+            case PacketPositions.COLUMN:
+                // the whole column counts if any part of it is in the box
+                return xyz[0] + 15 >= minX && xyz[0] <= maxX
+                        && xyz[2] + 15 >= minZ && xyz[2] <= maxZ;
+            default:
+                return false;
+            }
+        }
+    }
+
+    private static class ChatNode extends Node {
+        private final String text;
+
+        public ChatNode(String text) {
+            this.text = text;
+            setPossible(0x03);
+        }
+
+        @Override
+        protected boolean matches(PacketDirection dir, Packet packet) {
+            String message = ((Packet3Chat) packet).message;
+            return message != null && message.indexOf(text) >= 0;
+        }
+    }
+
+    private static class ChannelNode extends Node {
+        private final String channel;
+
+        public ChannelNode(String channel) {
+            this.channel = channel;
+            setPossible(0xFA);
+        }
+
+        @Override
+        protected boolean matches(PacketDirection dir, Packet packet) {
+            return channel.equals(((Packet250CustomPayload) packet).channel);
+        }
+    }
+
+    //
+    // Parser
+    //
+
+    private static class Parser {
+        private final String source;
+        private final List<String> tokens = new ArrayList<String>();
+        private int pos;
+
+        public Parser(String source) {
+            this.source = source;
+            tokenize();
+        }
+
+        /**
+         * Split into words, quoted strings (kept with the leading quote),
+         * and the punctuation ( ) , ..
+         */
+        private void tokenize() {
+            int i = 0;
+            int length = source.length();
+            while (i < length) {
+                char c = source.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '(' || c == ')' || c == ',') {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                } else if (source.startsWith("..", i)) {
+                    tokens.add("..");
+                    i += 2;
+                } else if (c == '"') {
+                    int end = source.indexOf('"', i + 1);
+                    if (end < 0) {
+                        throw error("unterminated string");
+                    }
+                    tokens.add(source.substring(i, end));
+                    i = end + 1;
+                } else {
+                    int start = i;
+                    while (i < length && !Character.isWhitespace(source.charAt(i))
+                            && "(),\"".indexOf(source.charAt(i)) < 0 && !source.startsWith("..", i)) {
+                        i++;
+                    }
+                    tokens.add(source.substring(start, i));
+                }
+            }
+        }
+
+        public IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("invalid packet-filter: " + message + " in: " + source);
+        }
+
+        public boolean hasMore() {
+            return pos < tokens.size();
+        }
+
+        public String peek() {
+            return hasMore() ? tokens.get(pos) : "end of filter";
+        }
+
+        private String next() {
+            if (!hasMore()) {
+                throw error("unexpected end of filter");
+            }
+            return tokens.get(pos++);
+        }
+
+        private boolean accept(String token) {
+            if (hasMore() && tokens.get(pos).equalsIgnoreCase(token)) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) {
+            if (!accept(token)) {
+                throw error("expected " + token + " but found " + peek());
+            }
+        }
+
+        public Node parseOr() {
+            Node node = parseAnd();
+            while (accept("or")) {
+                node = new OrNode(node, parseAnd());
+            }
+            return node;
+        }
+
+        private Node parseAnd() {
+            Node node = parseNot();
+            while (true) {
+                if (accept("and")) {
+                    node = new AndNode(node, parseNot());
+                } else if (hasMore() && !peek().equals(")") && !peek().equalsIgnoreCase("or")) {
+                    node = new AndNode(node, parseNot());
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        private Node parseNot() {
+            if (accept("not")) {
+                return new NotNode(parseNot());
+            }
+            if (accept("(")) {
+                Node node = parseOr();
+                expect(")");
+                return node;
+            }
+            return parseTerm();
+        }
+
+        private Node parseTerm() {
+            String term = next().toLowerCase();
+            if (term.equals("c2s")) {
+                return new DirectionNode(true, false);
+            } else if (term.equals("s2c")) {
+                return new DirectionNode(false, true);
+            } else if (term.equals("id")) {
+                boolean[] ids = new boolean[256];
+                do {
+                    String range = next();
+                    int dash = range.indexOf('-');
+                    int first = parseInt(dash < 0 ? range : range.substring(0, dash));
+                    int last = dash < 0 ? first : parseInt(range.substring(dash + 1));
+                    if (first < 0 || last > 255 || first > last) {
+                        throw error("invalid id range " + range);
+                    }
+                    for (int id = first; id <= last; id++) {
+                        ids[id] = true;
+                    }
+                } while (accept(","));
+                return new IdNode(ids);
+            } else if (term.equals("eid")) {
+                IntSet set = new IntSet();
+                do {
+                    set.add(parseInt(next()));
+                } while (accept(","));
+                return new EntityNode(set);
+            } else if (term.equals("block")) {
+                int[] from = parseInts(3);
+                expect("..");
+                int[] to = parseInts(3);
+                return new BoxNode(Math.min(from[0], to[0]), Math.min(from[1], to[1]), Math.min(from[2], to[2]),
+                        Math.max(from[0], to[0]), Math.max(from[1], to[1]), Math.max(from[2], to[2]));
+            } else if (term.equals("chunk") || term.equals("region")) {
+                int shift = term.equals("chunk") ? 4 : 9;
+                int[] from = parseInts(2);
+                expect("..");
+                int[] to = parseInts(2);
+                // any y
+                return new BoxNode(Math.min(from[0], to[0]) << shift, Integer.MIN_VALUE, Math.min(from[1], to[1]) << shift,
+                        ((Math.max(from[0], to[0]) + 1) << shift) - 1, Integer.MAX_VALUE,
+                        ((Math.max(from[1], to[1]) + 1) << shift) - 1);
+            } else if (term.equals("chat")) {
+                return new ChatNode(parseString());
+            } else if (term.equals("channel")) {
+                return new ChannelNode(parseString());
+            }
+            throw error("unknown term " + term);
+        }
+
+        private int[] parseInts(int count) {
+            int[] result = new int[count];
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    expect(",");
+                }
+                result[i] = parseInt(next());
+            }
+            return result;
+        }
+
+        private int parseInt(String token) {
+            try {
+                if (token.startsWith("0x")) {
+                    return Integer.parseInt(token.substring(2), 16);
+                }
+                return Integer.parseInt(token);
+            } catch (NumberFormatException e) {
+                throw error("expected a number but found " + token);
+            }
+        }
+
+        private String parseString() {
+            String token = next();
+            if (!token.startsWith("\"")) {
+                throw error("expected a quoted string but found " + token);
+            }
+            return token.substring(1);
+        }
+    }
+}
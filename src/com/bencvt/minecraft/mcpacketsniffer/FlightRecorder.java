@@ -0,0 +1,346 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.logging.Level;
+
+import javax.management.ObjectName;
+
+import net.minecraft.src.Packet;
+import net.minecraft.src.Packet3Chat;
+
+/**
+ * Keeps the most recent packets in a fixed-size off-heap ring buffer, and
+ * only writes anything to disk when something interesting happens:
+ * <ul>
+ * <li>the client is kicked (S2C 0xFF)</li>
+ * <li>the connection is closed by an error, e.g. disconnect.timeout</li>
+ * <li>a chat message contains one of the flight-recorder-chat-keywords</li>
+ * <li>the signal file (mods/McPacketSniffer/dump-flight-recorder) appears</li>
+ * <li>{@link #dump} is invoked through JMX</li>
+ * </ul>
+ * On a trigger, the last flight-recorder-seconds of traffic are rendered to a
+ * log file, e.g. logs/flight_20121118_200102_kick.txt, on a background
+ * thread. The ring is copied on the triggering thread, which is quick, and
+ * recording carries on while the dump is rendered.
+ * <p>
+ * Each record is self-contained, so the oldest ones can be overwritten:
+ * <pre>
+ *   int     length of the rest of the record
+ *   long    timestamp
+ *   byte    flags: bit 0 = direction (set for S2C), bits 1-2 = record kind
+ *   byte    packet id
+ *   ...     payload: the packet's own {@link Packet#writePacketData} output
+ *           (CaptureWriter.KIND_WIRE), or for packets that can't be
+ *           re-serialized, just their size (CaptureWriter.KIND_TEXT)
+ * </pre>
+ * Each FlightRecorder is owned by a ConnectionLog.
+ */
+public class FlightRecorder implements FlightRecorderMBean {
+    public static final String SIGNAL_FILE_NAME = "dump-flight-recorder";
+    public static final long SIGNAL_CHECK_INTERVAL = 1000;
+    public static final String OBJECT_NAME = "com.bencvt.minecraft.mcpacketsniffer:type=FlightRecorder";
+    private static final int RECORD_HEADER_SIZE = 8 + 1 + 1;
+
+    private static class Encoder {
+        public final CaptureWriter.RecordBuffer record = new CaptureWriter.RecordBuffer(512);
+        public final DataOutputStream data = new DataOutputStream(record);
+        public final StringBuilder text = new StringBuilder(64);
+    }
+
+    private static final ThreadLocal<Encoder> encoder = new ThreadLocal<Encoder>() {
+        @Override
+        protected Encoder initialValue() {
+            return new Encoder();
+        }
+    };
+
+    private final File outputDir;
+    private final String baseName;
+    private final long window;
+    private final List<String> chatKeywords;
+    private final boolean[] wireUnsupported = new boolean[256];
+    private ObjectName objectName;
+    private volatile boolean running;
+
+    // All of the following are guarded by this.
+    private final ByteBuffer ring;
+    private final int capacity;
+    private final byte[] scratch = new byte[4];
+    private long head; // total bytes ever written
+    private long tail; // start of the oldest record still held
+    private boolean dumping;
+
+    /**
+     * @param baseName dump file names start with this, e.g. "flight"
+     */
+    public FlightRecorder(File outputDir, String baseName, Options options) {
+        this.outputDir = outputDir;
+        this.baseName = baseName;
+        capacity = options.flightRecorderSize;
+        window = options.flightRecorderSeconds * 1000L;
+        chatKeywords = options.flightRecorderChatKeywords;
+        ring = ByteBuffer.allocateDirect(capacity);
+    }
+
+    public void start() {
+        running = true;
+        try {
+            objectName = new ObjectName(OBJECT_NAME);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (Exception e) {
+            Controller.getEventLog().log(Level.WARNING, "unable to register flight recorder with JMX", e);
+            objectName = null;
+        }
+        Thread watcher = new Thread(Controller.NAME + " flight recorder signal watcher") {
+            @Override
+            public void run() {
+                File signal = new File(Controller.getBaseDir(), SIGNAL_FILE_NAME);
+                while (running) {
+                    if (signal.exists()) {
+                        signal.delete();
+                        trigger("signal");
+                    }
+                    try {
+                        sleep(SIGNAL_CHECK_INTERVAL);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                Controller.getEventLog().log(Level.WARNING, "unable to unregister flight recorder from JMX", e);
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * Called by the network threads for every packet. Also fires the packet
+     * triggers (kick, chat keywords), after recording the packet itself.
+     */
+    public void record(PacketDirection dir, Packet packet, long timestamp) {
+        int packetId = packet.getPacketId();
+        Encoder e = encoder.get();
+        CaptureWriter.RecordBuffer record = e.record;
+        record.reset();
+        try {
+            e.data.writeLong(timestamp);
+            int flagsPos = record.size();
+            record.write(0); // placeholder
+            record.write(packetId);
+            int kind = CaptureWriter.KIND_WIRE;
+            if (wireUnsupported[packetId] || !writeWire(e, packet)) {
+                record.reset();
+                e.data.writeLong(timestamp);
+                record.write(0);
+                record.write(packetId);
+                e.text.setLength(0);
+                PacketLoggersBase.logApproximatePacketPayloadSize(e.text, packet);
+                e.data.write(e.text.toString().getBytes(ConnectionLog.CHARSET));
+                kind = CaptureWriter.KIND_TEXT;
+            }
+            record.getBuffer()[flagsPos] = (byte) ((kind << CaptureWriter.KIND_SHIFT)
+                    | (dir == PacketDirection.S2C ? CaptureWriter.FLAG_S2C : 0));
+        } catch (IOException ex) {
+            // can't happen, it's all in memory
+            throw new RuntimeException(ex);
+        }
+        append(record.getBuffer(), record.size());
+
+        if (packetId == 0xFF && dir == PacketDirection.S2C) {
+            // C2S is just the client quitting
+            trigger("kick");
+        } else if (packetId == 0x03 && !chatKeywords.isEmpty()) {
+            String message = ((Packet3Chat) packet).message;
+            for (int i = 0; message != null && i < chatKeywords.size(); i++) {
+                if (message.indexOf(chatKeywords.get(i)) >= 0) {
+                    trigger("chat");
+                    break;
+                }
+            }
+        }
+    }
+
+    private boolean writeWire(Encoder e, Packet packet) {
+        int mark = e.record.size();
+        try {
+            packet.writePacketData(e.data);
+        } catch (Exception ex) {
+            // same as CaptureWriter: remember so we don't keep trying
+            wireUnsupported[packet.getPacketId()] = true;
+            return false;
+        }
+        if (e.record.size() - mark > capacity / 4) {
+            // would push out too much history, e.g. a big chunk packet
+            return false;
+        }
+        return true;
+    }
+
+    private synchronized void append(byte[] data, int length) {
+        while (head + 4 + length - tail > capacity) {
+            // overwrite the oldest record
+            get(tail, scratch, 4);
+            tail += 4 + ((scratch[0] & 0xFF) << 24 | (scratch[1] & 0xFF) << 16
+                    | (scratch[2] & 0xFF) << 8 | (scratch[3] & 0xFF));
+        }
+        scratch[0] = (byte) (length >>> 24);
+        scratch[1] = (byte) (length >>> 16);
+        scratch[2] = (byte) (length >>> 8);
+        scratch[3] = (byte) length;
+        put(head, scratch, 4);
+        put(head + 4, data, length);
+        head += 4 + length;
+    }
+
+    private void put(long at, byte[] data, int length) {
+        int pos = (int) (at % capacity);
+        int first = Math.min(length, capacity - pos);
+        ring.position(pos);
+        ring.put(data, 0, first);
+        if (first < length) {
+            ring.position(0);
+            ring.put(data, first, length - first);
+        }
+    }
+
+    private void get(long at, byte[] data, int length) {
+        int pos = (int) (at % capacity);
+        int first = Math.min(length, capacity - pos);
+        ring.position(pos);
+        ring.get(data, 0, first);
+        if (first < length) {
+            ring.position(0);
+            ring.get(data, first, length - first);
+        }
+    }
+
+    @Override
+    public synchronized long getRecordedBytes() {
+        return head - tail;
+    }
+
+    @Override
+    public void dump() {
+        trigger("jmx");
+    }
+
+    /**
+     * Copy the ring and render it to a file in the background. Ignored if a
+     * dump is already in progress.
+     */
+    public void trigger(final String reason) {
+        final long now = System.currentTimeMillis();
+        final byte[] snapshot;
+        synchronized (this) {
+            if (dumping) {
+                Controller.getEventLog().info("flight recorder dump already in progress, ignoring " + reason);
+                return;
+            }
+            dumping = true;
+            snapshot = new byte[(int) (head - tail)];
+            get(tail, snapshot, snapshot.length);
+        }
+        new Thread(Controller.NAME + " flight recorder dump") {
+            @Override
+            public void run() {
+                try {
+                    writeDump(snapshot, reason, now);
+                } finally {
+                    synchronized (FlightRecorder.this) {
+                        dumping = false;
+                    }
+                }
+            }
+        }.start();
+    }
+
+    private void writeDump(byte[] snapshot, String reason, long now) {
+        // e.g., "flight_20121118_200102_kick.txt"
+        String fileName = baseName + "_" + PacketLoggersBase.timestampToString(now)
+                .replace(' ', '_').replaceAll("[:\\-]", "").substring(0, 15) + "_" + reason + ".txt";
+        File file = new File(outputDir, fileName);
+        Controller.getEventLog().info("flight recorder triggered (" + reason + "), dumping to " + file);
+        PrintWriter out = null;
+        try {
+            out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(file), ConnectionLog.CHARSET), 65536));
+            StringBuilder line = new StringBuilder(LineBuffer.INITIAL_CAPACITY);
+            PacketLoggersBase.logTimestamp(line, now);
+            line.append(" flight recorder dump: ").append(reason);
+            out.println(line.toString());
+            int pos = 0;
+            while (pos + 4 <= snapshot.length) {
+                int length = (snapshot[pos] & 0xFF) << 24 | (snapshot[pos + 1] & 0xFF) << 16
+                        | (snapshot[pos + 2] & 0xFF) << 8 | (snapshot[pos + 3] & 0xFF);
+                pos += 4;
+                line.setLength(0);
+                if (renderRecord(line, snapshot, pos, length, now - window)) {
+                    out.println(line.toString());
+                }
+                pos += length;
+            }
+        } catch (IOException e) {
+            Controller.getEventLog().log(Level.SEVERE, "unable to write flight recorder dump", e);
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * @return false if the record is older than since
+     */
+    private boolean renderRecord(StringBuilder line, byte[] data, int pos, int length, long since) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, pos, length));
+        try {
+            long timestamp = in.readLong();
+            if (timestamp < since) {
+                return false;
+            }
+            int flags = in.readUnsignedByte();
+            int packetId = in.readUnsignedByte();
+            PacketDirection dir = (flags & CaptureWriter.FLAG_S2C) != 0 ? PacketDirection.S2C : PacketDirection.C2S;
+            ConnectionLog.logPacketHeader(line, dir, packetId, timestamp);
+            int kind = (flags >> CaptureWriter.KIND_SHIFT) & CaptureWriter.KIND_MASK;
+            if (kind == CaptureWriter.KIND_TEXT) {
+                line.append(new String(data, pos + RECORD_HEADER_SIZE, length - RECORD_HEADER_SIZE,
+                        ConnectionLog.CHARSET));
+                return true;
+            }
+            Packet packet = Packet.getNewPacket(packetId);
+            if (packet == null) {
+                line.append("(unknown packet id)");
+                return true;
+            }
+            packet.readPacketData(in);
+            Controller.packetLoggerRegistry.dispatch(line, dir, packet);
+        } catch (Exception e) {
+            // render what we can of the rest of the dump
+            line.append("(unable to decode: ").append(e).append(')');
+        }
+        return true;
+    }
+}
@@ -0,0 +1,13 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+/**
+ * JMX interface for {@link FlightRecorder}, e.g. for triggering a dump from
+ * jconsole.
+ */
+public interface FlightRecorderMBean {
+    /** Dump the recent traffic to a log file, in the background. */
+    public void dump();
+
+    /** @return the number of bytes of packet records currently held */
+    public long getRecordedBytes();
+}
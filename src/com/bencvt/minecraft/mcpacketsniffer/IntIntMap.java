@@ -0,0 +1,171 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressed map from int to int (linear probing), so lookups by entity
+ * id and the like don't box. Not thread-safe.
+ *
+ * @see IntSet
+ */
+public class IntIntMap {
+    private static final int FREE = 0;
+
+    private int[] keys;
+    private int[] values;
+    private boolean containsFree;
+    private int freeValue;
+    private int size;
+    private int mask;
+
+    public IntIntMap() {
+        this(16);
+    }
+
+    /** @param expectedSize number of entries to hold without resizing */
+    public IntIntMap(int expectedSize) {
+        int capacity = 8;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public boolean containsKey(int key) {
+        if (key == FREE) {
+            return containsFree;
+        }
+        for (int i = IntSet.hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key) {
+                return true;
+            } else if (k == FREE) {
+                return false;
+            }
+        }
+    }
+
+    /** @return the key's value, or defaultValue if the key isn't in the map */
+    public int get(int key, int defaultValue) {
+        if (key == FREE) {
+            return containsFree ? freeValue : defaultValue;
+        }
+        for (int i = IntSet.hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key) {
+                return values[i];
+            } else if (k == FREE) {
+                return defaultValue;
+            }
+        }
+    }
+
+    /** @return true if the key wasn't already in the map */
+    public boolean put(int key, int value) {
+        if (key == FREE) {
+            freeValue = value;
+            if (containsFree) {
+                return false;
+            }
+            containsFree = true;
+            size++;
+            return true;
+        }
+        for (int i = IntSet.hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key) {
+                values[i] = value;
+                return false;
+            } else if (k == FREE) {
+                keys[i] = key;
+                values[i] = value;
+                if (++size * 2 > keys.length) {
+                    rehash(keys.length * 2);
+                }
+                return true;
+            }
+        }
+    }
+
+    /** @return true if the key was in the map */
+    public boolean remove(int key) {
+        if (key == FREE) {
+            if (!containsFree) {
+                return false;
+            }
+            containsFree = false;
+            size--;
+            return true;
+        }
+        for (int i = IntSet.hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == FREE) {
+                return false;
+            } else if (k == key) {
+                // shift back any following entries that would no longer be reachable
+                int gap = i;
+                for (int j = (i + 1) & mask; keys[j] != FREE; j = (j + 1) & mask) {
+                    int home = IntSet.hash(keys[j]) & mask;
+                    if (((j - home) & mask) >= ((j - gap) & mask)) {
+                        keys[gap] = keys[j];
+                        values[gap] = values[j];
+                        gap = j;
+                    }
+                }
+                keys[gap] = FREE;
+                size--;
+                return true;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        containsFree = false;
+        size = 0;
+    }
+
+    /** @return a new array with every key, in no particular order */
+    public int[] keys() {
+        int[] result = new int[size];
+        int n = 0;
+        if (containsFree) {
+            result[n++] = FREE;
+        }
+        for (int k : keys) {
+            if (k != FREE) {
+                result[n++] = k;
+            }
+        }
+        return result;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            int k = oldKeys[j];
+            if (k != FREE) {
+                int i = IntSet.hash(k) & mask;
+                while (keys[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = k;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
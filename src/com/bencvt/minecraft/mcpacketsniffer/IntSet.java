@@ -0,0 +1,149 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressed set of ints (linear probing), so membership checks don't
+ * box. Not thread-safe.
+ */
+public class IntSet {
+    private static final int FREE = 0;
+
+    private int[] keys;
+    private boolean containsFree;
+    private int size;
+    private int mask;
+
+    public IntSet() {
+        this(16);
+    }
+
+    /** @param expectedSize number of elements to hold without resizing */
+    public IntSet(int expectedSize) {
+        int capacity = 8;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /** Spread the bits so sequential ids don't cluster. */
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public boolean contains(int key) {
+        if (key == FREE) {
+            return containsFree;
+        }
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key) {
+                return true;
+            } else if (k == FREE) {
+                return false;
+            }
+        }
+    }
+
+    /** @return true if the key wasn't already in the set */
+    public boolean add(int key) {
+        if (key == FREE) {
+            if (containsFree) {
+                return false;
+            }
+            containsFree = true;
+            size++;
+            return true;
+        }
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key) {
+                return false;
+            } else if (k == FREE) {
+                keys[i] = key;
+                if (++size * 2 > keys.length) {
+                    rehash(keys.length * 2);
+                }
+                return true;
+            }
+        }
+    }
+
+    /** @return true if the key was in the set */
+    public boolean remove(int key) {
+        if (key == FREE) {
+            if (!containsFree) {
+                return false;
+            }
+            containsFree = false;
+            size--;
+            return true;
+        }
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == FREE) {
+                return false;
+            } else if (k == key) {
+                // shift back any following keys that would no longer be reachable
+                int gap = i;
+                for (int j = (i + 1) & mask; keys[j] != FREE; j = (j + 1) & mask) {
+                    int home = hash(keys[j]) & mask;
+                    if (((j - home) & mask) >= ((j - gap) & mask)) {
+                        keys[gap] = keys[j];
+                        gap = j;
+                    }
+                }
+                keys[gap] = FREE;
+                size--;
+                return true;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        containsFree = false;
+        size = 0;
+    }
+
+    /** @return a new array with every element, in no particular order */
+    public int[] toArray() {
+        int[] result = new int[size];
+        int n = 0;
+        if (containsFree) {
+            result[n++] = FREE;
+        }
+        for (int k : keys) {
+            if (k != FREE) {
+                result[n++] = k;
+            }
+        }
+        return result;
+    }
+
+    private void rehash(int capacity) {
+        int[] old = keys;
+        keys = new int[capacity];
+        mask = capacity - 1;
+        for (int k : old) {
+            if (k != FREE) {
+                int i = hash(k) & mask;
+                while (keys[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = k;
+            }
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Reusable per-thread buffers for rendering a log line and encoding it as
+ * UTF-8, so logging a packet doesn't allocate a new StringBuilder, String, and
+ * byte[] every time.
+ * <p>
+ * The packet loggers still append to a plain StringBuilder. It's just the same
+ * one every time, and {@link #encode} copies its chars straight into a byte
+ * buffer that's handed to the LogOutput as-is.
+ * <p>
+ * Lines rendered for a file (see {@link #beginStreamed}) can also leave big
+ * hex dumps out of the StringBuilder altogether: {@link #writeLine} streams
+ * them to the output in fixed-size chunks, so memory stays bounded no matter
+ * how big the payload is.
+ * <p>
+ * Both buffers are presized from the longest line recently seen for each
+ * packet id. After rendering an unusually long line (e.g. a hex dump of a map
+ * chunk) the buffers are allowed to shrink again rather than pinning megabytes
+ * per thread.
+ */
+public class LineBuffer {
+    public static final int INITIAL_CAPACITY = 160;
+    /** Buffers bigger than this are dropped unless the packet type needs them. */
+    public static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    public static final int NO_PACKET_ID = -1;
+    /** Byte arrays at least this long are hex dumped by {@link #writeLine}. */
+    public static final int MIN_STREAMED_LENGTH = 1024;
+    /** Bytes per hex dump chunk; each takes 3 chars of output. */
+    public static final int HEX_CHUNK_SIZE = 4096;
+
+    private static final ThreadLocal<LineBuffer> perThread = new ThreadLocal<LineBuffer>() {
+        @Override
+        protected LineBuffer initialValue() {
+            return new LineBuffer();
+        }
+    };
+
+    /**
+     * Decaying maximum of the encoded line length per packet id. Shared by all
+     * threads; lost updates don't matter since it's only a sizing hint.
+     */
+    private static final int[] expectedLength = new int[256];
+
+    private StringBuilder line = new StringBuilder(INITIAL_CAPACITY);
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+    private int length;
+    private int packetId = NO_PACKET_ID;
+    private boolean streaming;
+    private DeltaState deltaState;
+    private int deferredCount;
+    private int[] deferredPositions = new int[4];
+    private byte[][] deferredData = new byte[4][];
+    private byte[] hexChunk;
+
+    public static LineBuffer get() {
+        return perThread.get();
+    }
+
+    /**
+     * @return the expected rendered length of a packet of this type, in bytes
+     */
+    public static int getExpectedLength(int packetId) {
+        int expected = expectedLength[packetId & 0xFF];
+        return expected > 0 ? expected : INITIAL_CAPACITY;
+    }
+
+    /**
+     * Start a new line for a packet.
+     * @return the emptied StringBuilder to render into
+     */
+    public StringBuilder begin(int packetId) {
+        clearDeferred();
+        streaming = false;
+        deltaState = null;
+        this.packetId = packetId;
+        int expected = packetId == NO_PACKET_ID ? INITIAL_CAPACITY : getExpectedLength(packetId);
+        if (line.capacity() > MAX_RETAINED_CAPACITY && line.capacity() > 2 * expected) {
+            line = new StringBuilder(expected);
+        } else {
+            line.setLength(0);
+            line.ensureCapacity(expected);
+        }
+        if (bytes.length > MAX_RETAINED_CAPACITY && bytes.length > 2 * expected) {
+            bytes = new byte[expected];
+        }
+        length = 0;
+        return line;
+    }
+
+    /**
+     * Start a new line for a packet that will be written using
+     * {@link #writeLine}, allowing big hex dumps to be streamed.
+     */
+    public StringBuilder beginStreamed(int packetId) {
+        begin(packetId);
+        streaming = true;
+        return line;
+    }
+
+    /**
+     * Same as {@link #beginStreamed(int)}, also letting the packet loggers
+     * log only what changed since the last packet.
+     * @param deltaState the connection's delta state, or null to log packets
+     *                   in full
+     */
+    public StringBuilder beginStreamed(int packetId, DeltaState deltaState) {
+        beginStreamed(packetId);
+        this.deltaState = deltaState;
+        return line;
+    }
+
+    /**
+     * Start a new line that isn't a packet, e.g. "new connection to ...".
+     */
+    public StringBuilder begin() {
+        return begin(NO_PACKET_ID);
+    }
+
+    public StringBuilder getLine() {
+        return line;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /** @return the number of valid bytes after the last {@link #encode} */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Encode the line as UTF-8 into the byte buffer, exactly like
+     * String.getBytes("UTF-8") would (unpaired surrogates become '?').
+     * @param suffix raw bytes to append after the line, e.g. the line
+     *               separator, or null
+     * @return the number of bytes
+     */
+    public int encode(byte[] suffix) {
+        int n = encode(0, line.length(), suffix);
+        updateExpectedLength(n);
+        return n;
+    }
+
+    private int encode(int from, int to, byte[] suffix) {
+        int count = to;
+        int suffixLength = suffix == null ? 0 : suffix.length;
+        ensureBytes(count - from + suffixLength, 0);
+        byte[] b = bytes;
+        int n = 0;
+        int i = from;
+        // fast path: pure ASCII, which is nearly every line
+        while (i < count) {
+            char c = line.charAt(i);
+            if (c >= 0x80) {
+                break;
+            }
+            b[n++] = (byte) c;
+            i++;
+        }
+        if (i < count) {
+            // worst case is 3 bytes per remaining char
+            ensureBytes(n + 3 * (count - i) + suffixLength, n);
+            b = bytes;
+            for (; i < count; i++) {
+                char c = line.charAt(i);
+                if (c < 0x80) {
+                    b[n++] = (byte) c;
+                } else if (c < 0x800) {
+                    b[n++] = (byte) (0xC0 | (c >> 6));
+                    b[n++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(line.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, line.charAt(++i));
+                    b[n++] = (byte) (0xF0 | (cp >> 18));
+                    b[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    b[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    b[n++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                    b[n++] = '?';
+                } else {
+                    b[n++] = (byte) (0xE0 | (c >> 12));
+                    b[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    b[n++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+        if (suffixLength > 0) {
+            System.arraycopy(suffix, 0, b, n, suffixLength);
+            n += suffixLength;
+        }
+        length = n;
+        return n;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, length);
+    }
+
+    /**
+     * If the line was started with {@link #beginStreamed} and the data is
+     * big, remember it so {@link #writeLine} can hex dump it in place.
+     * @return true if the hex dump was deferred, false if the caller should
+     *         append it to the line as usual
+     */
+    public static boolean deferHexDump(StringBuilder line, byte[] data) {
+        if (data == null || data.length < MIN_STREAMED_LENGTH) {
+            return false;
+        }
+        LineBuffer buffer = get();
+        if (!buffer.streaming || buffer.line != line) {
+            return false;
+        }
+        if (buffer.deferredCount == buffer.deferredPositions.length) {
+            int[] positions = new int[buffer.deferredCount * 2];
+            System.arraycopy(buffer.deferredPositions, 0, positions, 0, buffer.deferredCount);
+            buffer.deferredPositions = positions;
+            byte[][] datas = new byte[buffer.deferredCount * 2][];
+            System.arraycopy(buffer.deferredData, 0, datas, 0, buffer.deferredCount);
+            buffer.deferredData = datas;
+        }
+        buffer.deferredPositions[buffer.deferredCount] = line.length();
+        buffer.deferredData[buffer.deferredCount] = data;
+        buffer.deferredCount++;
+        return true;
+    }
+
+    /**
+     * @return the delta state passed to {@link #beginStreamed(int, DeltaState)}
+     *         for this line, or null if the packet should be logged in full
+     */
+    public static DeltaState getDeltaState(StringBuilder line) {
+        LineBuffer buffer = get();
+        return buffer.line == line ? buffer.deltaState : null;
+    }
+
+    /** @return true if the line has hex dumps that aren't in the StringBuilder */
+    public boolean hasDeferredHexDumps() {
+        return deferredCount > 0;
+    }
+
+    /**
+     * Encode and write the line, followed by the suffix, expanding any
+     * deferred hex dumps along the way.
+     */
+    public void writeLine(OutputStream out, byte[] suffix) throws IOException {
+        if (deferredCount == 0) {
+            encode(suffix);
+            writeTo(out);
+            return;
+        }
+        try {
+            int from = 0;
+            for (int k = 0; k < deferredCount; k++) {
+                int to = deferredPositions[k];
+                encode(from, to, null);
+                writeTo(out);
+                writeHexDump(out, deferredData[k]);
+                from = to;
+            }
+            encode(from, line.length(), suffix);
+            writeTo(out);
+            updateExpectedLength(line.length());
+        } finally {
+            clearDeferred();
+        }
+    }
+
+    private void writeHexDump(OutputStream out, byte[] data) throws IOException {
+        if (hexChunk == null) {
+            hexChunk = new byte[HEX_CHUNK_SIZE * 3 + 1];
+        }
+        byte[] chunk = hexChunk;
+        byte[] pairs = NumberFormatter.HEX_PAIRS;
+        int n = 0;
+        chunk[n++] = '[';
+        for (int i = 0; i < data.length; i++) {
+            if (n > chunk.length - 3) {
+                out.write(chunk, 0, n);
+                n = 0;
+            }
+            if (i > 0) {
+                chunk[n++] = ' ';
+            }
+            int pair = (data[i] & 0xFF) << 1;
+            chunk[n++] = pairs[pair];
+            chunk[n++] = pairs[pair + 1];
+        }
+        out.write(chunk, 0, n);
+        out.write(']');
+    }
+
+    private void clearDeferred() {
+        for (int k = 0; k < deferredCount; k++) {
+            deferredData[k] = null;
+        }
+        deferredCount = 0;
+    }
+
+    private void ensureBytes(int capacity, int used) {
+        if (bytes.length < capacity) {
+            byte[] bigger = new byte[Math.max(capacity, bytes.length * 2)];
+            System.arraycopy(bytes, 0, bigger, 0, used);
+            bytes = bigger;
+        }
+    }
+
+    private void updateExpectedLength(int n) {
+        if (packetId == NO_PACKET_ID) {
+            return;
+        }
+        int id = packetId & 0xFF;
+        int expected = expectedLength[id];
+        if (n > expected) {
+            expectedLength[id] = n;
+        } else {
+            // decay slowly so a single huge line doesn't stick around forever
+            expectedLength[id] = expected - ((expected - n) >> 4);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Destination for encoded packet log bytes, either text lines or binary
+ * capture records. Writers call {@link #endRecord} after each complete
+ * line/record, and implementations only ever start a new file (segment,
+ * compressed block, etc.) on a record boundary.
+ *
+ * Each LogOutput is owned by a ConnectionLog.
+ */
+public abstract class LogOutput extends OutputStream {
+    public interface SegmentListener {
+        /**
+         * Called right after the output switches to a new, empty segment so
+         * the writer can emit whatever header makes the segment readable on
+         * its own.
+         */
+        public void onSegmentStart(LogOutput output) throws IOException;
+    }
+
+    protected SegmentListener segmentListener;
+
+    public void setSegmentListener(SegmentListener segmentListener) {
+        this.segmentListener = segmentListener;
+    }
+
+    /**
+     * Mark the end of a record.
+     * @param timestamp when the record's packet was captured
+     */
+    public void endRecord(long timestamp) throws IOException {
+        // do nothing by default
+    }
+
+    /**
+     * Plain buffered file stream, i.e. the classic packets*.txt behavior.
+     */
+    public static class StreamLogOutput extends LogOutput {
+        private final OutputStream out;
+
+        public StreamLogOutput(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+
+/**
+ * Appends straight into preallocated, memory-mapped segment files, e.g.
+ * "packets_mc.example.com.0003.txt". There's no user-space buffer to flush
+ * and no write() call per flush: bytes land in the OS page cache as soon as
+ * they're copied, so they survive even if the client crashes mid-session.
+ * <p>
+ * A segment is rolled over on the first record boundary after it fills up
+ * (or hits one of the usual rotation limits).
+ * A single record that doesn't fit in the remaining space grows the mapping
+ * instead of being split across segments.
+ * <p>
+ * On close the segment is truncated to the bytes actually written. After a
+ * crash the segment keeps its zero padding; text tools ignore the trailing
+ * NULs, and {@link CaptureConverter} treats a zero length as end of file.
+ */
+public class MappedLogOutput extends SegmentedLogOutput<MappedLogOutput.Segment> {
+    /** Once less than this is left, roll over at the next record boundary. */
+    public static final int ROLL_THRESHOLD = 64 * 1024;
+    public static final int MIN_GROWTH = 4 * 1024 * 1024;
+
+    public static class Segment {
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        private final MappedByteBuffer buf;
+
+        private Segment(RandomAccessFile raf, FileChannel channel, MappedByteBuffer buf) {
+            this.raf = raf;
+            this.channel = channel;
+            this.buf = buf;
+        }
+    }
+
+    private final int segmentSize;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer buf;
+
+    /**
+     * @param dir
+     * @param prefix e.g. "packets_mc.example.com"
+     * @param extension e.g. ".txt"
+     * @param segmentSize in bytes
+     * @see SegmentedLogOutput#SegmentedLogOutput for the other limits
+     */
+    public MappedLogOutput(File dir, String prefix, String extension, int segmentSize,
+            long maxBytes, long maxMillis, long maxRecords) throws IOException {
+        super(dir, prefix, extension, maxBytes, maxMillis, maxRecords);
+        this.segmentSize = segmentSize;
+        startFirstSegment();
+    }
+
+    @Override
+    protected Segment createSegment(File file) throws IOException {
+        RandomAccessFile newRaf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel newChannel = newRaf.getChannel();
+            return new Segment(newRaf, newChannel, newChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        } catch (IOException e) {
+            newRaf.close();
+            throw e;
+        }
+    }
+
+    @Override
+    protected void attachSegment(Segment segment) {
+        raf = segment.raf;
+        channel = segment.channel;
+        buf = segment.buf;
+    }
+
+    @Override
+    protected void discardSegment(Segment segment, File file) {
+        unmap(segment.buf);
+        try {
+            segment.channel.close();
+            segment.raf.close();
+        } catch (IOException e) {
+            // deleting it anyway
+        }
+        file.delete();
+    }
+
+    /**
+     * Truncate the segment to its logical length and release it.
+     */
+    @Override
+    protected Runnable detachSegment() {
+        final MappedByteBuffer oldBuf = buf;
+        final FileChannel oldChannel = channel;
+        final RandomAccessFile oldRaf = raf;
+        final File oldFile = getSegmentFile();
+        buf = null;
+        channel = null;
+        raf = null;
+        return new Runnable() {
+            @Override
+            public void run() {
+                int length = oldBuf.position();
+                unmap(oldBuf);
+                try {
+                    try {
+                        oldChannel.truncate(length);
+                    } catch (IOException e) {
+                        // Some platforms refuse to truncate a file that's still mapped.
+                        // The zero padding is harmless, so just leave it.
+                        Controller.getEventLog().log(Level.FINE, "unable to truncate " + oldFile, e);
+                    }
+                    oldChannel.close();
+                    oldRaf.close();
+                } catch (IOException e) {
+                    Controller.getEventLog().log(Level.SEVERE, "unable to close " + oldFile, e);
+                }
+            }
+        };
+    }
+
+    @Override
+    protected boolean isSegmentFull() {
+        return buf.remaining() < ROLL_THRESHOLD;
+    }
+
+    /**
+     * Make room for a record that's bigger than what's left in the segment.
+     */
+    private void ensureRemaining(int needed) throws IOException {
+        if (buf.remaining() >= needed) {
+            return;
+        }
+        int position = buf.position();
+        long newSize = (long) buf.capacity() + Math.max(needed, MIN_GROWTH);
+        if (newSize > Integer.MAX_VALUE) {
+            throw new IOException("record too large for a mapped segment");
+        }
+        MappedByteBuffer old = buf;
+        buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+        buf.position(position);
+        unmap(old);
+    }
+
+    @Override
+    protected void writeToSegment(int b) throws IOException {
+        ensureRemaining(1);
+        buf.put((byte) b);
+    }
+
+    @Override
+    protected void writeToSegment(byte[] b, int off, int len) throws IOException {
+        ensureRemaining(len);
+        buf.put(b, off, len);
+    }
+
+    /**
+     * Nothing to do: the data is already in the page cache. Forcing it to
+     * disk on every flush would defeat the purpose.
+     */
+    @Override
+    public void flush() {
+        // do nothing
+    }
+
+    /**
+     * Release a mapping right away instead of waiting for the garbage
+     * collector, so the file can be truncated. There's no public API for this
+     * (as of Java 6), so use the cleaner if it's there, and give up quietly
+     * otherwise.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Throwable t) {
+            // do nothing
+        }
+    }
+}
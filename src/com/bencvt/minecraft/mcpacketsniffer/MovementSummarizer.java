@@ -0,0 +1,411 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.src.*;
+
+/**
+ * Replaces the per-tick movement lines (0x0A-0x0D for the player, 0x1E-0x23
+ * for other entities) with one line per trajectory segment:
+ * <pre>
+ * 2012-11-18 20:01:06.410 S2C trajectory {eid=123 type=...} packets=42 duration=2100ms start=(10.50,64.00,-3.25) end=(18.00,64.00,-1.00) displacement=(7.50,0.00,2.25) path=[(10.50,64.00,-3.25) (14.00,64.00,-3.25) (18.00,64.00,-1.00)]
+ * </pre>
+ * The path is simplified (Ramer-Douglas-Peucker) so that no dropped point is
+ * further than the tolerance from it. If the entity's position wasn't known
+ * when the segment started (always the case with async-capture, until a
+ * teleport comes along), "origin=unknown" is logged and positions are
+ * relative to the start.
+ * <p>
+ * Relative moves are added up, so every movement packet has to be offered,
+ * including the ones that are filtered out or sampled away (with weight 0).
+ * Those only move the position along: packets= only counts the logged ones,
+ * and a trajectory made only of them isn't written at all.
+ * <p>
+ * A segment ends when any other packet refers to the entity, when it has
+ * lasted longer than the timeout, when it has too many points, and on
+ * disconnect.
+ * <p>
+ * Not thread-safe: ConnectionLog calls it with the log writer locked.
+ */
+public class MovementSummarizer {
+    public interface LineSink {
+        public void writeLine(LineBuffer buffer, long timestamp);
+    }
+
+    /** Keys for the player's own movement, which has no entity id. */
+    private static final int PLAYER_C2S = Integer.MIN_VALUE;
+    private static final int PLAYER_S2C = Integer.MIN_VALUE + 1;
+    private static final int MAX_POINTS = 256;
+    private static final int MAX_TRAJECTORIES = 1024;
+    /** Trajectories checked for timeout per packet. */
+    private static final int SWEEP_PER_PACKET = 2;
+
+    private static class Trajectory {
+        int key;
+        PacketDirection dir;
+        int lastPacketId;
+        int packets;
+        /** sum of the weights, i.e. packets that would otherwise have been logged */
+        int logged;
+        long firstTimestamp;
+        long lastTimestamp;
+        /** false if positions are relative to an unknown origin */
+        boolean absolute;
+        double curX;
+        double curY;
+        double curZ;
+        int points;
+        double[] x = new double[16];
+        double[] y = new double[16];
+        double[] z = new double[16];
+
+        void addPoint(double px, double py, double pz) {
+            if (points == x.length) {
+                int capacity = points * 2;
+                double[] tmp = new double[capacity];
+                System.arraycopy(x, 0, tmp, 0, points);
+                x = tmp;
+                tmp = new double[capacity];
+                System.arraycopy(y, 0, tmp, 0, points);
+                y = tmp;
+                tmp = new double[capacity];
+                System.arraycopy(z, 0, tmp, 0, points);
+                z = tmp;
+            }
+            x[points] = px;
+            y[points] = py;
+            z[points] = pz;
+            points++;
+            curX = px;
+            curY = py;
+            curZ = pz;
+        }
+    }
+
+    private final long timeout;
+    private final double tolerance;
+    private final boolean lookUpOrigin;
+    private final LineSink sink;
+
+    /** key -> index into trajectories */
+    private final IntIntMap slots = new IntIntMap(MAX_TRAJECTORIES);
+    private final Trajectory[] trajectories = new Trajectory[MAX_TRAJECTORIES];
+    private final int[] freeSlots = new int[MAX_TRAJECTORIES];
+    private int freeCount;
+    private int sweep;
+
+    // scratch space
+    private int[] entityIds = new int[16];
+    private boolean[] keep = new boolean[MAX_POINTS];
+    private final int[] stack = new int[2 * MAX_POINTS];
+
+    /**
+     * @param timeout maximum duration of a trajectory segment, in milliseconds
+     * @param tolerance maximum distance of dropped points from the simplified
+     *                  path, in blocks
+     * @param lookUpOrigin true if packets are offered on the thread that's
+     *                     about to process them, so the entity's current
+     *                     position in the world is where a segment starts
+     */
+    public MovementSummarizer(long timeout, double tolerance, boolean lookUpOrigin, LineSink sink) {
+        this.timeout = timeout;
+        this.tolerance = tolerance;
+        this.lookUpOrigin = lookUpOrigin;
+        this.sink = sink;
+        for (int i = 0; i < MAX_TRAJECTORIES; i++) {
+            trajectories[i] = new Trajectory();
+            freeSlots[i] = MAX_TRAJECTORIES - 1 - i;
+        }
+        freeCount = MAX_TRAJECTORIES;
+    }
+
+    public static boolean isMovement(int packetId) {
+        return (packetId >= 0x0A && packetId <= 0x0D) || (packetId >= 0x1E && packetId <= 0x23);
+    }
+
+    /**
+     * Feed a packet to the summarizer, writing any trajectory lines that end
+     * because of it.
+     * @param weight number of packets this one stands in for, see
+     *               PacketSampler, or 0 if it wouldn't have been logged
+     * @return true if the packet was a movement packet and has been taken
+     *         care of, false if the caller should log it as usual
+     */
+    public boolean offer(PacketDirection dir, Packet packet, long timestamp, int weight) {
+        sweep(timestamp);
+        int packetId = packet.getPacketId();
+        if (isMovement(packetId)) {
+            addMovement(dir, packet, packetId, timestamp, weight);
+            return true;
+        }
+        if (slots.size() > 0 && PacketEntityIds.hasEntityIds(packetId)) {
+            int count = PacketEntityIds.extract(packet, entityIds);
+            if (count > entityIds.length) {
+                entityIds = new int[count];
+                PacketEntityIds.extract(packet, entityIds);
+            }
+            for (int i = 0; i < count; i++) {
+                int slot = slots.get(entityIds[i], -1);
+                if (slot >= 0) {
+                    flush(slot);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Write out every trajectory, e.g. on disconnect. */
+    public void flushAll() {
+        for (int slot = 0; slot < MAX_TRAJECTORIES; slot++) {
+            if (trajectories[slot].packets > 0) {
+                flush(slot);
+            }
+        }
+    }
+
+    private void sweep(long timestamp) {
+        for (int i = 0; i < SWEEP_PER_PACKET; i++) {
+            sweep = (sweep + 1) % MAX_TRAJECTORIES;
+            Trajectory t = trajectories[sweep];
+            if (t.packets > 0 && timestamp - t.firstTimestamp > timeout) {
+                flush(sweep);
+            }
+        }
+    }
+
+    private void addMovement(PacketDirection dir, Packet packet, int packetId, long timestamp, int weight) {
+        int key;
+        if (packetId <= 0x0D) {
+            key = dir == PacketDirection.C2S ? PLAYER_C2S : PLAYER_S2C;
+        } else if (packetId == 0x22) {
+            key = ((Packet34EntityTeleport) packet).entityId;
+        } else if (packetId == 0x23) {
+            key = ((Packet35EntityHeadRotation) packet).entityId;
+        } else {
+            key = ((Packet30Entity) packet).entityId;
+        }
+        int slot = slots.get(key, -1);
+        if (slot >= 0 && timestamp - trajectories[slot].firstTimestamp > timeout) {
+            flush(slot);
+            slot = -1;
+        }
+        if (slot < 0) {
+            slot = start(key, dir, timestamp);
+        }
+        Trajectory t = trajectories[slot];
+        t.packets++;
+        t.logged += weight;
+        t.lastPacketId = packetId;
+        t.lastTimestamp = timestamp;
+        switch (packetId) {
+        case 0x0B:
+        case 0x0D: {
+            Packet10Flying p = (Packet10Flying) packet;
+            // 0x0D from the server has y and stance swapped, see PacketLoggers
+            double y = packetId == 0x0D && dir == PacketDirection.S2C ? p.stance : p.yPosition;
+            addAbsolute(t, p.xPosition, y, p.zPosition);
+            break;
+        }
+        case 0x1F:
+        case 0x21: {
+            Packet30Entity p = (Packet30Entity) packet;
+            if (t.points == 0) {
+                t.addPoint(t.curX, t.curY, t.curZ);
+            }
+            t.addPoint(t.curX + p.xPosition / 32.0, t.curY + p.yPosition / 32.0, t.curZ + p.zPosition / 32.0);
+            break;
+        }
+        case 0x22: {
+            Packet34EntityTeleport p = (Packet34EntityTeleport) packet;
+            addAbsolute(t, p.xPosition / 32.0, p.yPosition / 32.0, p.zPosition / 32.0);
+            break;
+        }
+        default:
+            // no position
+        }
+        if (t.points >= MAX_POINTS) {
+            flush(slot);
+        }
+    }
+
+    private static void addAbsolute(Trajectory t, double x, double y, double z) {
+        if (!t.absolute && t.points > 0) {
+            // now we know where the relative moves started from
+            double dx = x - t.curX;
+            double dy = y - t.curY;
+            double dz = z - t.curZ;
+            for (int i = 0; i < t.points; i++) {
+                t.x[i] += dx;
+                t.y[i] += dy;
+                t.z[i] += dz;
+            }
+        }
+        t.absolute = true;
+        t.addPoint(x, y, z);
+    }
+
+    private int start(int key, PacketDirection dir, long timestamp) {
+        if (freeCount == 0) {
+            // too many at once: make room
+            sweep = (sweep + 1) % MAX_TRAJECTORIES;
+            flush(sweep);
+        }
+        int slot = freeSlots[--freeCount];
+        slots.put(key, slot);
+        Trajectory t = trajectories[slot];
+        t.key = key;
+        t.dir = dir;
+        t.firstTimestamp = timestamp;
+        t.logged = 0;
+        t.points = 0;
+        t.absolute = false;
+        t.curX = 0.0;
+        t.curY = 0.0;
+        t.curZ = 0.0;
+        if (lookUpOrigin && key != PLAYER_C2S && key != PLAYER_S2C) {
+            // Received packets are seen right before they're processed, so
+            // this is where the entity was before the first move.
+            Minecraft mc = Minecraft.getMinecraft();
+            Entity entity = mc == null || mc.theWorld == null ? null : mc.theWorld.getEntityByID(key);
+            if (entity != null) {
+                t.absolute = true;
+                t.curX = entity.serverPosX / 32.0;
+                t.curY = entity.serverPosY / 32.0;
+                t.curZ = entity.serverPosZ / 32.0;
+            }
+        }
+        return slot;
+    }
+
+    private void flush(int slot) {
+        Trajectory t = trajectories[slot];
+        if (t.packets == 0) {
+            return;
+        }
+        if (t.logged == 0) {
+            // only there to keep track of the position
+            release(slot);
+            return;
+        }
+        LineBuffer buffer = LineBuffer.get();
+        StringBuilder line = buffer.begin();
+        PacketLoggersBase.logTimestamp(line, t.lastTimestamp);
+        line.append(' ').append(t.dir).append(" trajectory ");
+        if (t.key == PLAYER_C2S || t.key == PLAYER_S2C) {
+            line.append("player");
+        } else {
+            PacketLoggersBase.logExistingEntity(line, t.key);
+        }
+        line.append(" packets=").append(t.logged);
+        line.append(" duration=").append(t.lastTimestamp - t.firstTimestamp).append("ms");
+        int n = t.points;
+        if (n > 0) {
+            if (!t.absolute) {
+                line.append(" origin=unknown");
+            }
+            line.append(" start=");
+            logPoint(line, t.x[0], t.y[0], t.z[0]);
+            line.append(" end=");
+            logPoint(line, t.x[n - 1], t.y[n - 1], t.z[n - 1]);
+            line.append(" displacement=");
+            logPoint(line, t.x[n - 1] - t.x[0], t.y[n - 1] - t.y[0], t.z[n - 1] - t.z[0]);
+            line.append(" path=[");
+            simplify(t);
+            boolean first = true;
+            for (int i = 0; i < n; i++) {
+                if (keep[i]) {
+                    if (!first) {
+                        line.append(' ');
+                    }
+                    first = false;
+                    logPoint(line, t.x[i], t.y[i], t.z[i]);
+                }
+            }
+            line.append(']');
+        }
+        sink.writeLine(buffer, t.lastTimestamp);
+        release(slot);
+    }
+
+    private void release(int slot) {
+        Trajectory t = trajectories[slot];
+        slots.remove(t.key);
+        t.packets = 0;
+        t.logged = 0;
+        t.points = 0;
+        freeSlots[freeCount++] = slot;
+    }
+
+    private static void logPoint(StringBuilder line, double x, double y, double z) {
+        line.append('(');
+        NumberFormatter.appendFixed(line, x, 2);
+        line.append(',');
+        NumberFormatter.appendFixed(line, y, 2);
+        line.append(',');
+        NumberFormatter.appendFixed(line, z, 2);
+        line.append(')');
+    }
+
+    /**
+     * Ramer-Douglas-Peucker, iteratively: mark the points to keep.
+     */
+    private void simplify(Trajectory t) {
+        int n = t.points;
+        if (keep.length < n) {
+            keep = new boolean[n];
+        }
+        for (int i = 0; i < n; i++) {
+            keep[i] = false;
+        }
+        keep[0] = true;
+        keep[n - 1] = true;
+        int top = 0;
+        if (n > 2) {
+            stack[top++] = 0;
+            stack[top++] = n - 1;
+        }
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            double maxDistance = -1.0;
+            int farthest = -1;
+            for (int i = first + 1; i < last; i++) {
+                double d = distanceToSegment(t, i, first, last);
+                if (d > maxDistance) {
+                    maxDistance = d;
+                    farthest = i;
+                }
+            }
+            if (farthest >= 0 && maxDistance > tolerance) {
+                keep[farthest] = true;
+                if (farthest - first > 1) {
+                    stack[top++] = first;
+                    stack[top++] = farthest;
+                }
+                if (last - farthest > 1) {
+                    stack[top++] = farthest;
+                    stack[top++] = last;
+                }
+            }
+        }
+    }
+
+    private static double distanceToSegment(Trajectory t, int p, int a, int b) {
+        double abX = t.x[b] - t.x[a];
+        double abY = t.y[b] - t.y[a];
+        double abZ = t.z[b] - t.z[a];
+        double apX = t.x[p] - t.x[a];
+        double apY = t.y[p] - t.y[a];
+        double apZ = t.z[p] - t.z[a];
+        double lengthSquared = abX * abX + abY * abY + abZ * abZ;
+        double u = lengthSquared == 0.0 ? 0.0 : (apX * abX + apY * abY + apZ * abZ) / lengthSquared;
+        if (u < 0.0) {
+            u = 0.0;
+        } else if (u > 1.0) {
+            u = 1.0;
+        }
+        double dx = apX - u * abX;
+        double dy = apY - u * abY;
+        double dz = apZ - u * abZ;
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+}
@@ -0,0 +1,317 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import java.util.Collection;
+
+import net.minecraft.src.*;
+
+/**
+ * Renders NBT tags (item stack data, tile entity data) straight into a log
+ * line, e.g. <code>{display:{Name:"Sword"},ench:[{id:16s,lvl:5s}]}</code>.
+ * <p>
+ * Output is bounded by the nbt-max-* options: past the maximum depth a
+ * compound or list is shown as <code>{...}</code>/<code>[...]</code>, long
+ * lists end with <code>...+N more</code>, and once the rendered tag reaches
+ * the maximum length the rest is replaced by <code>...(truncated)</code>.
+ * <p>
+ * With nbt-hash-only, just a stable 64-bit digest of the contents is logged,
+ * e.g. <code>nbt#3F2A9C01D4E5B678</code>. Compound entries are hashed
+ * independently of iteration order, so the same data always gets the same
+ * digest.
+ * <p>
+ * Not thread-safe: use {@link #get} for the current thread's instance.
+ */
+public class NBTLogger {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final ThreadLocal<NBTLogger> perThread = new ThreadLocal<NBTLogger>() {
+        @Override
+        protected NBTLogger initialValue() {
+            return new NBTLogger();
+        }
+    };
+
+    private StringBuilder line;
+    private int maxDepth;
+    private int maxListElements;
+    private int endPosition;
+    private boolean truncated;
+
+    public static NBTLogger get() {
+        return perThread.get();
+    }
+
+    public void log(StringBuilder line, NBTBase tag) {
+        Options options = Controller.getOptions();
+        if (tag == null) {
+            line.append("<null>");
+            return;
+        }
+        if (options.nbtHashOnly) {
+            line.append("nbt#");
+            long hash = hash(tag);
+            NumberFormatter.appendHex(line, (int) (hash >>> 32), 8);
+            NumberFormatter.appendHex(line, (int) hash, 8);
+            return;
+        }
+        this.line = line;
+        maxDepth = options.nbtMaxDepth;
+        maxListElements = options.nbtMaxListElements;
+        endPosition = line.length() + options.nbtMaxLength;
+        truncated = false;
+        try {
+            logTag(tag, 0);
+        } finally {
+            this.line = null;
+        }
+    }
+
+    /**
+     * @return false once the length limit is hit, after appending the
+     *         truncation marker
+     */
+    private boolean checkLength() {
+        if (truncated) {
+            return false;
+        }
+        if (line.length() > endPosition) {
+            line.append("...(truncated)");
+            truncated = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Log a string tag, cut short if it alone would run past the length
+     * limit, so one huge string (e.g. book pages) isn't escaped in full.
+     */
+    private void logString(String s) {
+        int remaining = Math.max(0, endPosition - line.length());
+        if (s.length() <= remaining) {
+            PacketLoggersBase.logString(line, s);
+            return;
+        }
+        PacketLoggersBase.logString(line, s.substring(0, remaining));
+        line.append("...(truncated)");
+        truncated = true;
+    }
+
+    private void logTag(NBTBase tag, int depth) {
+        switch (tag.getId()) {
+        case 0:
+            line.append("end");
+            break;
+        case 1:
+            line.append(((NBTTagByte) tag).data).append('b');
+            break;
+        case 2:
+            line.append(((NBTTagShort) tag).data).append('s');
+            break;
+        case 3:
+            line.append(((NBTTagInt) tag).data);
+            break;
+        case 4:
+            line.append(((NBTTagLong) tag).data).append('L');
+            break;
+        case 5:
+            line.append(((NBTTagFloat) tag).data).append('f');
+            break;
+        case 6:
+            line.append(((NBTTagDouble) tag).data).append('d');
+            break;
+        case 7:
+            line.append("[B;").append(((NBTTagByteArray) tag).byteArray.length).append(" bytes]");
+            break;
+        case 8:
+            logString(((NBTTagString) tag).data);
+            break;
+        case 9:
+            logList((NBTTagList) tag, depth);
+            break;
+        case 10:
+            logCompound((NBTTagCompound) tag, depth);
+            break;
+        case 11:
+            logIntArray(((NBTTagIntArray) tag).intArray);
+            break;
+        default:
+            line.append("?(type ").append(tag.getId()).append(')');
+        }
+    }
+
+    private void logCompound(NBTTagCompound compound, int depth) {
+        if (depth >= maxDepth) {
+            line.append("{...}");
+            return;
+        }
+        line.append('{');
+        boolean first = true;
+        for (Object child : (Collection<?>) compound.getTags()) {
+            if (!checkLength()) {
+                return;
+            }
+            if (!first) {
+                line.append(',');
+            }
+            first = false;
+            NBTBase tag = (NBTBase) child;
+            line.append(tag.getName()).append(':');
+            logTag(tag, depth + 1);
+        }
+        if (checkLength()) {
+            line.append('}');
+        }
+    }
+
+    private void logList(NBTTagList list, int depth) {
+        if (depth >= maxDepth) {
+            line.append("[...]");
+            return;
+        }
+        line.append('[');
+        int count = list.tagCount();
+        for (int i = 0; i < count; i++) {
+            if (!checkLength()) {
+                return;
+            }
+            if (i > 0) {
+                line.append(',');
+            }
+            if (i >= maxListElements) {
+                line.append("...+").append(count - i).append(" more");
+                break;
+            }
+            logTag(list.tagAt(i), depth + 1);
+        }
+        if (checkLength()) {
+            line.append(']');
+        }
+    }
+
+    private void logIntArray(int[] data) {
+        line.append("[I;");
+        for (int i = 0; i < data.length; i++) {
+            if (!checkLength()) {
+                return;
+            }
+            if (i > 0) {
+                line.append(',');
+            }
+            if (i >= maxListElements) {
+                line.append("...+").append(data.length - i).append(" more");
+                break;
+            }
+            line.append(data[i]);
+        }
+        if (checkLength()) {
+            line.append(']');
+        }
+    }
+
+    //
+    // Digest
+    //
+
+    private static long mix(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash ^= (value >>> (i * 8)) & 0xFF;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, String s) {
+        if (s == null) {
+            return mix(hash, -1L);
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            hash ^= ch & 0xFF;
+            hash *= FNV_PRIME;
+            hash ^= ch >>> 8;
+            hash *= FNV_PRIME;
+        }
+        return mix(hash, s.length());
+    }
+
+    /** Final avalanche so sums of entry hashes stay well distributed. */
+    private static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * @return a 64-bit digest of the tag's contents (not including its own
+     *         name)
+     */
+    public static long hash(NBTBase tag) {
+        long hash = mix(FNV_OFFSET, tag.getId());
+        switch (tag.getId()) {
+        case 1:
+            hash = mix(hash, ((NBTTagByte) tag).data);
+            break;
+        case 2:
+            hash = mix(hash, ((NBTTagShort) tag).data);
+            break;
+        case 3:
+            hash = mix(hash, ((NBTTagInt) tag).data);
+            break;
+        case 4:
+            hash = mix(hash, ((NBTTagLong) tag).data);
+            break;
+        case 5:
+            hash = mix(hash, Float.floatToIntBits(((NBTTagFloat) tag).data));
+            break;
+        case 6:
+            hash = mix(hash, Double.doubleToLongBits(((NBTTagDouble) tag).data));
+            break;
+        case 7: {
+            byte[] data = ((NBTTagByteArray) tag).byteArray;
+            for (int i = 0; i < data.length; i++) {
+                hash ^= data[i] & 0xFF;
+                hash *= FNV_PRIME;
+            }
+            hash = mix(hash, data.length);
+            break;
+        }
+        case 8:
+            hash = mix(hash, ((NBTTagString) tag).data);
+            break;
+        case 9: {
+            NBTTagList list = (NBTTagList) tag;
+            int count = list.tagCount();
+            for (int i = 0; i < count; i++) {
+                hash = mix(hash, hash(list.tagAt(i)));
+            }
+            hash = mix(hash, count);
+            break;
+        }
+        case 10: {
+            // order-independent: sum the entry hashes
+            long sum = 0L;
+            int count = 0;
+            for (Object child : (Collection<?>) ((NBTTagCompound) tag).getTags()) {
+                NBTBase entry = (NBTBase) child;
+                sum += finish(mix(mix(FNV_OFFSET, entry.getName()), hash(entry)));
+                count++;
+            }
+            hash = mix(mix(hash, sum), count);
+            break;
+        }
+        case 11: {
+            int[] data = ((NBTTagIntArray) tag).intArray;
+            for (int i = 0; i < data.length; i++) {
+                hash = mix(hash, data[i]);
+            }
+            hash = mix(hash, data.length);
+            break;
+        }
+        default:
+            break;
+        }
+        return finish(hash);
+    }
+}
@@ -0,0 +1,92 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import java.math.BigDecimal;
+
+/**
+ * Appends numbers straight into a StringBuilder, as a cheap replacement for
+ * String.format in the packet loggers: no format string parsing, no boxing,
+ * no Formatter instance per call.
+ */
+public abstract class NumberFormatter {
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    /**
+     * Two uppercase ASCII hex digits for every byte value: the digits for
+     * byte b are at [2 * b] and [2 * b + 1].
+     */
+    public static final byte[] HEX_PAIRS = new byte[512];
+    static {
+        for (int b = 0; b < 256; b++) {
+            HEX_PAIRS[2 * b] = (byte) HEX_DIGITS[b >> 4];
+            HEX_PAIRS[2 * b + 1] = (byte) HEX_DIGITS[b & 0x0F];
+        }
+    }
+    private static final long[] POWERS_OF_TEN = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+    };
+    /** Beyond this the fast path could lose precision. */
+    private static final double MAX_FAST_SCALED = 1e15;
+
+    /**
+     * Same as String.format("%.Nf", value), which rounds the value's shortest
+     * decimal representation (Double.toString) HALF_UP, except that the
+     * decimal separator is always '.' regardless of the default locale.
+     * Pass floats as-is: Formatter widens them to double the same way.
+     *
+     * @param decimals 0 to 9
+     */
+    public static void appendFixed(StringBuilder line, double value, int decimals) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            line.append(value);
+            return;
+        }
+        long scale = POWERS_OF_TEN[decimals];
+        double magnitude = Math.abs(value);
+        double scaled = magnitude * scale;
+        if (scaled < MAX_FAST_SCALED) {
+            double floor = Math.floor(scaled);
+            double fraction = scaled - floor;
+            // Close to a tie, the binary value and its shortest decimal
+            // representation can round differently, so let BigDecimal decide.
+            if (Math.abs(fraction - 0.5) > 4 * Math.ulp(scaled)) {
+                long rounded = (long) floor + (fraction > 0.5 ? 1 : 0);
+                if (value < 0.0 || (value == 0.0 && 1.0 / value < 0.0)) {
+                    line.append('-');
+                }
+                line.append(rounded / scale);
+                if (decimals > 0) {
+                    line.append('.');
+                    long remainder = rounded % scale;
+                    for (int i = decimals - 1; i > 0 && remainder < POWERS_OF_TEN[i]; i--) {
+                        line.append('0');
+                    }
+                    line.append(remainder);
+                }
+                return;
+            }
+        }
+        BigDecimal decimal = new BigDecimal(Double.toString(magnitude)).setScale(decimals, BigDecimal.ROUND_HALF_UP);
+        if (value < 0.0) {
+            line.append('-');
+        }
+        line.append(decimal.toPlainString());
+    }
+
+    /**
+     * Same as String.format("%02X", value & 0xFF).
+     */
+    public static void appendHexByte(StringBuilder line, int value) {
+        int i = (value & 0xFF) << 1;
+        line.append((char) HEX_PAIRS[i]);
+        line.append((char) HEX_PAIRS[i + 1]);
+    }
+
+    /**
+     * Same as String.format("%0NX", value) for a non-negative value that fits
+     * in the given number of digits.
+     */
+    public static void appendHex(StringBuilder line, int value, int digits) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            line.append(HEX_DIGITS[(value >> shift) & 0x0F]);
+        }
+    }
+}
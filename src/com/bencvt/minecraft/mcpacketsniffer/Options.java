@@ -2,9 +2,14 @@ package com.bencvt.minecraft.mcpacketsniffer;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
 import java.util.logging.Level;
 
@@ -14,6 +19,18 @@ public class Options {
     public static final File OPTIONS_FILE = new File(Controller.getBaseDir(), "options.txt");
     private static long lastModified;
 
+    /** Not even counted in the stats dump. */
+    public static final int VERBOSITY_OFF = 0;
+    /** Counted in the stats dump, but not logged. */
+    public static final int VERBOSITY_COUNT_ONLY = 1;
+    /** Logged as timestamp, direction, id, and payload size. */
+    public static final int VERBOSITY_HEADER_ONLY = 2;
+    /** Logged in full, except for large byte arrays. */
+    public static final int VERBOSITY_SUMMARY = 3;
+    /** Logged in full, including hex dumps of large byte arrays. */
+    public static final int VERBOSITY_FULL = 4;
+    private static final String[] VERBOSITY_NAMES = { "off", "count-only", "header-only", "summary", "full" };
+
     public final Collection<Integer> packetWhitelist;
     public final boolean flushAfterEveryPacket;
     public final long flushInterval;
@@ -22,17 +39,79 @@ public class Options {
     public final boolean summarizeBinaryData;
     public final String colorEscape;
     public final boolean logMissingCodes;
+    /** Indexed by [direction * 256 + packetId], see {@link #getVerbosity}. */
+    private final byte[] verbosity = new byte[2 * 256];
+    /** Packets not matching this are count-only. */
+    public final FilterExpression packetFilter;
+    /** Indexed by packetId, see {@link #getPacketFields}. */
+    private final long[] packetFields = new long[256];
+    /** Indexed by packetId, see {@link #getSamplingInterval}. */
+    private final int[] samplingInterval = new int[256];
+    /** Indexed by packetId, see {@link #getRateLimit}. */
+    private final int[] rateLimit = new int[256];
+    /** True if any packet type is sampled or rate limited. */
+    public final boolean sampling;
+    public final int nbtMaxDepth;
+    public final int nbtMaxListElements;
+    public final int nbtMaxLength;
+    public final boolean nbtHashOnly;
+    public final boolean outputText;
+    public final boolean outputBinary;
+    public final boolean timestampMicros;
+    public final int mappedSegmentSize;
+    public final long rotateBytes;
+    public final long rotateMillis;
+    public final long rotatePackets;
+    public final int compressedBlockSize;
 
     public final boolean newFilePerConnection;
     public final boolean newFilePerServer;
     public final boolean integratedServer;
     public final boolean statsDump;
     public final boolean statsAllPackets;
+    public final boolean asyncCapture;
+    public final int asyncQueueSize;
+    public final boolean deltaRendering;
+    public final int deltaKeyframeInterval;
+    public final int deltaMaxEntities;
+    public final long coalesceWindow;
+    public final long trajectoryTimeout;
+    public final double trajectoryTolerance;
+    public final IntSet followEntities;
+    public final IntSet followMobTypes;
+    public final List<String> followMobNames;
+    public final boolean followPlayers;
+    public final int flightRecorderSize;
+    public final int flightRecorderSeconds;
+    public final List<String> flightRecorderChatKeywords;
+    public final ConditionalCapture.Rules captureConditions;
+    public final long captureDuration;
+    public final long captureRateWindow;
 
     public Options() {
         this(loadProperties());
     }
 
+    /**
+     * For Controller.initStandalone: read the options file as-is, or the
+     * defaults if there isn't one, without writing or renaming anything.
+     */
+    public static Options loadStandalone() {
+        Properties props = new Properties();
+        try {
+            InputStream in = OPTIONS_FILE.exists() ? new FileInputStream(OPTIONS_FILE)
+                    : Controller.class.getResourceAsStream("default-options.properties");
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("unable to load " + OPTIONS_FILE, e);
+        }
+        return new Options(props);
+    }
+
     private Options(Properties props) {
         packetWhitelist = loadIntegerCollection(notNull(props, "packet-whitelist"), new HashSet<Integer>(), true);
         flushAfterEveryPacket = Boolean.parseBoolean(notNull(props, "flush-after-every-packet"));
@@ -42,12 +121,315 @@ public class Options {
         summarizeBinaryData = Boolean.parseBoolean(notNull(props, "summarize-binary-data"));
         colorEscape = notNull(props, "color-escape").trim();
         logMissingCodes = Boolean.parseBoolean(notNull(props, "log-missing-codes"));
+        loadVerbosity(notNull(props, "packet-verbosity"));
+        packetFilter = FilterExpression.compile(notNull(props, "packet-filter"));
+        loadPacketFields(notNull(props, "packet-fields"));
+        sampling = loadSampling(notNull(props, "packet-sampling"), notNull(props, "packet-rate-limit"));
+        nbtMaxDepth = Integer.parseInt(notNull(props, "nbt-max-depth").trim());
+        nbtMaxListElements = Integer.parseInt(notNull(props, "nbt-max-list-elements").trim());
+        nbtMaxLength = Integer.parseInt(notNull(props, "nbt-max-length").trim());
+        if (nbtMaxDepth < 0 || nbtMaxListElements < 0 || nbtMaxLength < 0) {
+            throw new IllegalArgumentException("nbt-max-depth, nbt-max-list-elements, and nbt-max-length must not be negative");
+        }
+        nbtHashOnly = Boolean.parseBoolean(notNull(props, "nbt-hash-only"));
+        String outputFormat = notNull(props, "output-format").trim();
+        if (outputFormat.equals("text")) {
+            outputText = true;
+            outputBinary = false;
+        } else if (outputFormat.equals("binary")) {
+            outputText = false;
+            outputBinary = true;
+        } else if (outputFormat.equals("both")) {
+            outputText = true;
+            outputBinary = true;
+        } else {
+            throw new IllegalArgumentException("invalid output-format: " + outputFormat);
+        }
+        timestampMicros = Boolean.parseBoolean(notNull(props, "timestamp-micros").trim());
+        int segmentMiB = Integer.parseInt(notNull(props, "mapped-segment-size").trim());
+        if (segmentMiB < 0 || segmentMiB > 1024) {
+            throw new IllegalArgumentException("mapped-segment-size must be between 0 and 1024");
+        }
+        mappedSegmentSize = segmentMiB * 1024 * 1024;
+        rotateBytes = Long.parseLong(notNull(props, "rotate-size").trim()) * 1024L * 1024L;
+        rotateMillis = Long.parseLong(notNull(props, "rotate-interval").trim()) * 60L * 1000L;
+        rotatePackets = Long.parseLong(notNull(props, "rotate-packets").trim());
+        if (rotateBytes < 0L || rotateMillis < 0L || rotatePackets < 0L) {
+            throw new IllegalArgumentException("rotate-size, rotate-interval, and rotate-packets must not be negative");
+        }
+        int blockKiB = Integer.parseInt(notNull(props, "compressed-block-size").trim());
+        if (blockKiB < 0 || blockKiB > 65536) {
+            throw new IllegalArgumentException("compressed-block-size must be between 0 and 65536");
+        }
+        if (blockKiB > 0 && (mappedSegmentSize > 0 || isRotationEnabled())) {
+            throw new IllegalArgumentException("compressed-block-size can't be combined with mapped-segment-size or rotate-*");
+        }
+        compressedBlockSize = blockKiB * 1024;
 
         newFilePerConnection = Boolean.parseBoolean(notNull(props, "new-file-per-connection"));
         newFilePerServer = Boolean.parseBoolean(notNull(props, "new-file-per-server"));
         integratedServer = Boolean.parseBoolean(notNull(props, "integrated-server"));
         statsDump = Boolean.parseBoolean(notNull(props, "stats-dump"));
         statsAllPackets = Boolean.parseBoolean(notNull(props, "stats-all-packets"));
+        asyncCapture = Boolean.parseBoolean(notNull(props, "async-capture"));
+        asyncQueueSize = Integer.parseInt(notNull(props, "async-queue-size").trim());
+        if (asyncQueueSize < 1) {
+            throw new IllegalArgumentException("async-queue-size must be positive");
+        }
+        deltaRendering = Boolean.parseBoolean(notNull(props, "delta-rendering"));
+        deltaKeyframeInterval = Integer.parseInt(notNull(props, "delta-keyframe-interval").trim());
+        deltaMaxEntities = Integer.parseInt(notNull(props, "delta-max-entities").trim());
+        if (deltaKeyframeInterval < 1 || deltaMaxEntities < 1) {
+            throw new IllegalArgumentException("delta-keyframe-interval and delta-max-entities must be positive");
+        }
+        coalesceWindow = Long.parseLong(notNull(props, "coalesce-window").trim());
+        if (coalesceWindow < 0L) {
+            throw new IllegalArgumentException("coalesce-window must not be negative");
+        }
+        trajectoryTimeout = Long.parseLong(notNull(props, "trajectory-timeout").trim());
+        trajectoryTolerance = Double.parseDouble(notNull(props, "trajectory-tolerance").trim());
+        if (trajectoryTimeout < 0L || trajectoryTolerance < 0.0) {
+            throw new IllegalArgumentException("trajectory-timeout and trajectory-tolerance must not be negative");
+        }
+        followEntities = new IntSet();
+        for (int entityId : loadIntegerCollection(notNull(props, "follow-entities"), new ArrayList<Integer>(), false)) {
+            followEntities.add(entityId);
+        }
+        followMobTypes = new IntSet();
+        List<String> mobNames = new ArrayList<String>();
+        boolean players = false;
+        for (String type : notNull(props, "follow-entity-types").split(",")) {
+            type = type.trim();
+            if (type.isEmpty()) {
+                continue;
+            } else if (type.equalsIgnoreCase("player")) {
+                players = true;
+            } else if (Character.isDigit(type.charAt(0))) {
+                followMobTypes.add(parseInteger(type));
+            } else {
+                mobNames.add(type.toLowerCase());
+            }
+        }
+        followMobNames = Collections.unmodifiableList(mobNames);
+        followPlayers = players;
+        int recorderMiB = Integer.parseInt(notNull(props, "flight-recorder-size").trim());
+        if (recorderMiB < 0 || recorderMiB > 1024) {
+            throw new IllegalArgumentException("flight-recorder-size must be between 0 and 1024");
+        }
+        flightRecorderSize = recorderMiB * 1024 * 1024;
+        flightRecorderSeconds = Integer.parseInt(notNull(props, "flight-recorder-seconds").trim());
+        if (flightRecorderSeconds < 1) {
+            throw new IllegalArgumentException("flight-recorder-seconds must be positive");
+        }
+        List<String> keywords = new ArrayList<String>();
+        for (String keyword : notNull(props, "flight-recorder-chat-keywords").split(",")) {
+            keyword = keyword.trim();
+            if (!keyword.isEmpty()) {
+                keywords.add(keyword);
+            }
+        }
+        flightRecorderChatKeywords = Collections.unmodifiableList(keywords);
+        captureConditions = ConditionalCapture.Rules.parse(notNull(props, "capture-conditions"));
+        captureDuration = Long.parseLong(notNull(props, "capture-duration").trim()) * 1000L;
+        captureRateWindow = Long.parseLong(notNull(props, "capture-rate-window").trim()) * 1000L;
+        if (captureDuration < 1000L || captureRateWindow < 1000L) {
+            throw new IllegalArgumentException("capture-duration and capture-rate-window must be positive");
+        }
+    }
+
+    /**
+     * Compile the per-packet verbosity table: the default level from
+     * summarize-binary-data, count-only for anything not in a non-empty
+     * packet-whitelist, then each packet-verbosity entry in order.
+     */
+    private void loadVerbosity(String entries) {
+        byte defaultLevel = (byte) (summarizeBinaryData ? VERBOSITY_SUMMARY : VERBOSITY_FULL);
+        for (int id = 0; id < 256; id++) {
+            byte level = packetWhitelist.isEmpty() || packetWhitelist.contains(id) ? defaultLevel : VERBOSITY_COUNT_ONLY;
+            verbosity[id] = level;
+            verbosity[256 + id] = level;
+        }
+        for (String entry : entries.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int colon = entry.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("invalid packet-verbosity entry: " + entry);
+            }
+            String ids = entry.substring(0, colon).trim();
+            String levelName = entry.substring(colon + 1).trim();
+            int level = -1;
+            for (int i = 0; i < VERBOSITY_NAMES.length; i++) {
+                if (VERBOSITY_NAMES[i].equalsIgnoreCase(levelName)) {
+                    level = i;
+                }
+            }
+            if (level < 0) {
+                throw new IllegalArgumentException("invalid packet-verbosity level: " + levelName);
+            }
+            boolean c2s = true;
+            boolean s2c = true;
+            if (ids.regionMatches(true, 0, "C2S ", 0, 4)) {
+                s2c = false;
+                ids = ids.substring(4).trim();
+            } else if (ids.regionMatches(true, 0, "S2C ", 0, 4)) {
+                c2s = false;
+                ids = ids.substring(4).trim();
+            }
+            int first;
+            int last;
+            if (ids.equals("*")) {
+                first = 0;
+                last = 255;
+            } else {
+                int dash = ids.indexOf('-');
+                first = parseInteger(dash < 0 ? ids : ids.substring(0, dash));
+                last = dash < 0 ? first : parseInteger(ids.substring(dash + 1));
+            }
+            if (first < 0 || last > 255 || first > last) {
+                throw new IllegalArgumentException("invalid packet-verbosity id range: " + ids);
+            }
+            for (int id = first; id <= last; id++) {
+                if (c2s) {
+                    verbosity[id] = (byte) level;
+                }
+                if (s2c) {
+                    verbosity[256 + id] = (byte) level;
+                }
+            }
+        }
+    }
+
+    /**
+     * Compile the per-packet field projections. Every packet type renders all
+     * of its fields unless it has a packet-fields entry, e.g.
+     * "0x1F: eid,dxyz; 0x22: eid,xyz".
+     */
+    private void loadPacketFields(String entries) {
+        Arrays.fill(packetFields, PacketFields.ALL);
+        for (String entry : entries.split(";")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int colon = entry.indexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("invalid packet-fields entry: " + entry);
+            }
+            int id = parseInteger(entry.substring(0, colon));
+            if (id < 0 || id > 255) {
+                throw new IllegalArgumentException("invalid packet-fields id: " + entry);
+            }
+            long selectable = Controller.packetLoggerRegistry.getSelectableFields(id);
+            long fields = 0L;
+            for (String name : entry.substring(colon + 1).split(",")) {
+                name = name.trim();
+                if (name.isEmpty()) {
+                    continue;
+                }
+                long field = PacketFields.parse(name);
+                if ((field & selectable) == 0L) {
+                    throw new IllegalArgumentException("invalid packet-fields field for packet " + id + ": " + name
+                            + " (valid fields: " + PacketFields.toString(selectable) + ")");
+                }
+                fields |= field;
+            }
+            packetFields[id] = fields;
+        }
+    }
+
+    /**
+     * @return the {@link PacketFields} the packet loggers should render for
+     *         this kind of packet
+     */
+    public long getPacketFields(int packetId) {
+        return packetFields[packetId & 0xFF];
+    }
+
+    /**
+     * Compile the per-packet sampling intervals ("0x1F:1/50, 0x38:1/10") and
+     * rate limits in lines per second ("0x1F:20, 0x23:5").
+     * @return true if any packet type is sampled or rate limited
+     */
+    private boolean loadSampling(String intervals, String rateLimits) {
+        Arrays.fill(samplingInterval, 1);
+        boolean any = false;
+        for (String entry : intervals.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int colon = entry.indexOf(':');
+            String rate = colon < 0 ? "" : entry.substring(colon + 1).trim();
+            if (!rate.startsWith("1/")) {
+                throw new IllegalArgumentException("invalid packet-sampling entry: " + entry);
+            }
+            int id = parseInteger(entry.substring(0, colon));
+            int interval = parseInteger(rate.substring(2));
+            if (id < 0 || id > 255 || interval < 1) {
+                throw new IllegalArgumentException("invalid packet-sampling entry: " + entry);
+            }
+            samplingInterval[id] = interval;
+            any |= interval > 1;
+        }
+        for (String entry : rateLimits.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int colon = entry.indexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("invalid packet-rate-limit entry: " + entry);
+            }
+            int id = parseInteger(entry.substring(0, colon));
+            int limit = parseInteger(entry.substring(colon + 1));
+            if (id < 0 || id > 255 || limit < 0) {
+                throw new IllegalArgumentException("invalid packet-rate-limit entry: " + entry);
+            }
+            rateLimit[id] = limit;
+            any |= limit > 0;
+        }
+        return any;
+    }
+
+    /**
+     * @return log 1 in this many packets of this type, 1 for all of them
+     */
+    public int getSamplingInterval(int packetId) {
+        return samplingInterval[packetId & 0xFF];
+    }
+
+    /**
+     * @return the maximum number of lines per second to log for this type of
+     *         packet, 0 for unlimited
+     */
+    public int getRateLimit(int packetId) {
+        return rateLimit[packetId & 0xFF];
+    }
+
+    /**
+     * @return one of the VERBOSITY_* constants
+     */
+    public int getVerbosity(PacketDirection dir, int packetId) {
+        return verbosity[(dir == PacketDirection.S2C ? 256 : 0) + (packetId & 0xFF)];
+    }
+
+    /**
+     * @return true if large byte arrays in this kind of packet should be
+     *         logged as just their size rather than a hex dump
+     */
+    public boolean summarizeBinaryData(PacketDirection dir, int packetId) {
+        return getVerbosity(dir, packetId) < VERBOSITY_FULL;
+    }
+
+    public boolean isFollowingEntities() {
+        return !followEntities.isEmpty() || !followMobTypes.isEmpty() || !followMobNames.isEmpty() || followPlayers;
+    }
+
+    public boolean isRotationEnabled() {
+        return rotateBytes > 0L || rotateMillis > 0L || rotatePackets > 0L;
     }
 
     private static Properties loadProperties() {
@@ -92,6 +474,14 @@ public class Options {
         return result;
     }
 
+    private static int parseInteger(String item) {
+        item = item.trim();
+        if (item.startsWith("0x")) {
+            return Integer.parseInt(item.substring(2), 16);
+        }
+        return Integer.parseInt(item);
+    }
+
     private static Collection<Integer> loadIntegerCollection(String items, Collection<Integer> storage, boolean makeUnmodifiable) {
         storage.clear();
         for (String item : items.split(",")) {
@@ -99,11 +489,7 @@ public class Options {
             if (item.isEmpty()) {
                 continue;
             }
-            if (item.startsWith("0x")) {
-                storage.add(Integer.parseInt(item.substring(2), 16));
-            } else {
-                storage.add(Integer.parseInt(item));
-            }
+            storage.add(parseInteger(item));
         }
         if (makeUnmodifiable) {
             return Collections.unmodifiableCollection(storage);
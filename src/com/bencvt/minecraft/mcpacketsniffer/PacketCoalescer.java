@@ -0,0 +1,134 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+/**
+ * Holds back runs of identical consecutive packets (keep alives, tab list
+ * pings, repeated head rotations, ...) so the text log gets the first line
+ * of a run as usual, followed by a single summary line once the run ends:
+ * <pre>
+ * 2012-11-18 20:01:02.003 S2C 0xC9 player info   name="bob" online=true ping=51
+ * 2012-11-18 20:01:06.410 S2C 0xC9 player info   repeated x4 first=2012-11-18 20:01:03.107 last=2012-11-18 20:01:06.410
+ * </pre>
+ * i.e. the line above was received 4 more times, between first and last.
+ * <p>
+ * Packets are compared by direction, id, and a 64-bit hash of the rendered
+ * fields (everything after the line header). A run ends on any different
+ * packet, once it has lasted longer than the time window, and on disconnect.
+ * The window is checked when the next packet arrives, and by ConnectionLog's
+ * flusher thread (if running, see flush-interval) via {@link #endExpiredRun},
+ * so on a quiet connection the summary can be up to one flush interval late.
+ * <p>
+ * Only affects the text log; stats and the binary capture still see every
+ * packet. Not thread-safe: ConnectionLog calls it with the log writer locked.
+ */
+public class PacketCoalescer {
+    private final long window;
+
+    private boolean inRun;
+    private PacketDirection dir;
+    private int packetId;
+    private int bodyLength;
+    private long fingerprint;
+    private long runStart;
+    private int repeats;
+    private long firstRepeat;
+    private long lastRepeat;
+
+    private final StringBuilder summary = new StringBuilder(LineBuffer.INITIAL_CAPACITY);
+    private boolean hasSummary;
+    private long summaryTimestamp;
+
+    /**
+     * @param window maximum time between the first and last packet of a run,
+     *               in milliseconds
+     */
+    public PacketCoalescer(long window) {
+        this.window = window;
+    }
+
+    /**
+     * @param line the rendered packet
+     * @param bodyStart where the packet logger's output starts in the line
+     * @param comparable false if the line doesn't hold all of the packet's
+     *                   rendered fields (e.g. it has deferred hex dumps), so
+     *                   it can't be matched
+     * @return true if the packet is a repeat and shouldn't be logged. If
+     *         false, log {@link #takeSummary} first, if any.
+     */
+    public boolean isRepeat(PacketDirection dir, int packetId, StringBuilder line, int bodyStart,
+            boolean comparable, long timestamp) {
+        long hash = 0xcbf29ce484222325L;
+        int length = line.length();
+        if (comparable) {
+            for (int i = bodyStart; i < length; i++) {
+                hash ^= line.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            if (inRun && packetId == this.packetId && dir == this.dir && hash == fingerprint
+                    && length - bodyStart == bodyLength && timestamp - runStart <= window) {
+                if (repeats == 0) {
+                    firstRepeat = timestamp;
+                }
+                repeats++;
+                lastRepeat = timestamp;
+                return true;
+            }
+        }
+        endRun();
+        if (comparable) {
+            inRun = true;
+            this.dir = dir;
+            this.packetId = packetId;
+            bodyLength = length - bodyStart;
+            fingerprint = hash;
+            runStart = timestamp;
+        }
+        return false;
+    }
+
+    /**
+     * End the current run if it has lasted longer than the window. Log
+     * {@link #takeSummary} afterwards, if any.
+     */
+    public void endExpiredRun(long now) {
+        if (inRun && now - runStart > window) {
+            endRun();
+        }
+    }
+
+    /**
+     * End the current run, e.g. on disconnect. Log {@link #takeSummary}
+     * afterwards, if any.
+     */
+    public void endRun() {
+        if (inRun && repeats > 0) {
+            summary.setLength(0);
+            ConnectionLog.logPacketHeader(summary, dir, packetId, lastRepeat);
+            summary.append("repeated x").append(repeats);
+            summary.append(" first=");
+            PacketLoggersBase.logTimestamp(summary, firstRepeat);
+            summary.append(" last=");
+            PacketLoggersBase.logTimestamp(summary, lastRepeat);
+            summaryTimestamp = lastRepeat;
+            hasSummary = true;
+        }
+        inRun = false;
+        repeats = 0;
+    }
+
+    /**
+     * @return the summary line for the run that just ended, or null if there
+     *         is nothing to log
+     */
+    public StringBuilder takeSummary() {
+        if (!hasSummary) {
+            return null;
+        }
+        hasSummary = false;
+        return summary;
+    }
+
+    /** @return when the last packet summarized by {@link #takeSummary} was received */
+    public long getSummaryTimestamp() {
+        return summaryTimestamp;
+    }
+}
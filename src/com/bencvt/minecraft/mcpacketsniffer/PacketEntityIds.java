@@ -0,0 +1,206 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import net.minecraft.src.*;
+
+/**
+ * Table of per-packet-type functions that pull out the entity ids a packet
+ * refers to, for subsystems that track entities across packets (e.g. the
+ * movement summarizer) without rendering anything.
+ */
+public abstract class PacketEntityIds {
+    public interface Extractor {
+        /**
+         * Store the packet's entity ids in ids, as many as fit.
+         * @return the number of entity ids the packet refers to, which may be
+         *         more than ids.length
+         */
+        public int extract(Packet packet, int[] ids);
+    }
+
+    private static final Extractor[] extractors = new Extractor[256];
+
+    static {
+        extractors[0x05] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                return one(ids, ((Packet5PlayerInventory) packet).entityID);
+            }
+        };
+        extractors[0x07] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                Packet7UseEntity p = (Packet7UseEntity) packet;
+                return two(ids, p.playerEntityId, p.targetEntity);
+            }
+        };
+        extractors[0x11] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                return one(ids, ((Packet17Sleep) packet).entityID);
+            }
+        };
+        extractors[0x12] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                return one(ids, ((Packet18Animation) packet).entityId);
+            }
+        };
+        extractors[0x13] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                return one(ids, ((Packet19EntityAction) packet).entityId);
+            }
+        };
+        extractors[0x14] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                return one(ids, ((Packet20NamedEntitySpawn) packet).entityId);
+            }
+        };
+        extractors[0x15] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                return one(ids, ((Packet21PickupSpawn) packet).entityId);
+            }
+        };
+        extractors[0x16] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                Packet22Collect p = (Packet22Collect) packet;
+                return two(ids, p.collectedEntityId, p.collectorEntityId);
+            }
+        };
+        extractors[0x17] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                return one(ids, ((Packet23VehicleSpawn) packet).entityId);
+            }
+        };
+        extractors[0x18] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                return one(ids, ((Packet24MobSpawn) packet).entityId);
+            }
+        };
+        extractors[0x19] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                return one(ids, ((Packet25EntityPainting) packet).entityId);
+            }
+        };
+        extractors[0x1A] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                return one(ids, ((Packet26EntityExpOrb) packet).entityId);
+            }
+        };
+        extractors[0x1C] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                return one(ids, ((Packet28EntityVelocity) packet).entityId);
+            }
+        };
+        extractors[0x1D] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                int[] entityIds = ((Packet29DestroyEntity) packet).entityId;
+                System.arraycopy(entityIds, 0, ids, 0, Math.min(entityIds.length, ids.length));
+                return entityIds.length;
+            }
+        };
+        Extractor entity = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                return one(ids, ((Packet30Entity) packet).entityId);
+            }
+        };
+        for (int id = 0x1E; id <= 0x21; id++) {
+            extractors[id] = entity;
+        }
+        extractors[0x22] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                return one(ids, ((Packet34EntityTeleport) packet).entityId);
+            }
+        };
+        extractors[0x23] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                return one(ids, ((Packet35EntityHeadRotation) packet).entityId);
+            }
+        };
+        extractors[0x26] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                return one(ids, ((Packet38EntityStatus) packet).entityId);
+            }
+        };
+        extractors[0x27] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                Packet39AttachEntity p = (Packet39AttachEntity) packet;
+                return two(ids, p.entityId, p.vehicleEntityId);
+            }
+        };
+        extractors[0x28] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                return one(ids, ((Packet40EntityMetadata) packet).entityId);
+            }
+        };
+        extractors[0x29] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                return one(ids, ((Packet41EntityEffect) packet).entityId);
+            }
+        };
+        extractors[0x2A] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                return one(ids, ((Packet42RemoveEntityEffect) packet).entityId);
+            }
+        };
+        extractors[0x37] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                return one(ids, ((Packet55BlockDestroy) packet).getEntityId());
+            }
+        };
+        extractors[0x47] = new Extractor() {
+            @Override
+            public int extract(Packet packet, int[] ids) {
+                return one(ids, ((Packet71Weather) packet).entityID);
+            }
+        };
+    }
+
+    private static int one(int[] ids, int entityId) {
+        if (ids.length > 0) {
+            ids[0] = entityId;
+        }
+        return 1;
+    }
+
+    private static int two(int[] ids, int entityId, int otherEntityId) {
+        if (ids.length > 0) {
+            ids[0] = entityId;
+        }
+        if (ids.length > 1) {
+            ids[1] = otherEntityId;
+        }
+        return 2;
+    }
+
+    /** @return true if packets of this type refer to any entities */
+    public static boolean hasEntityIds(int packetId) {
+        return extractors[packetId & 0xFF] != null;
+    }
+
+    /**
+     * @see Extractor#extract
+     */
+    public static int extract(Packet packet, int[] ids) {
+        Extractor extractor = extractors[packet.getPacketId() & 0xFF];
+        return extractor == null ? 0 : extractor.extract(packet, ids);
+    }
+}
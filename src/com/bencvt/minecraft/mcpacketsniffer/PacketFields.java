@@ -0,0 +1,72 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+/**
+ * Names of the individually selectable parts of a packet's log line, for the
+ * packet-fields option. Each is a bit so a packet's selection fits in a long.
+ * <p>
+ * Packet loggers declare which of these they support in their
+ * {@link PacketLoggers.PacketLogger} annotation, and skip the work for any
+ * field that isn't selected.
+ */
+public abstract class PacketFields {
+    /** Every field, i.e. no projection. */
+    public static final long ALL = -1L;
+
+    /** Entity id alone, without looking the entity up. */
+    public static final long EID = 1L << 0;
+    /** Entity id, type, and position, looked up in the world. */
+    public static final long ENTITY = 1L << 1;
+    /** Coordinates. */
+    public static final long XYZ = 1L << 2;
+    /** Region part of coordinates (if coords-include-region is also true). */
+    public static final long REGION = 1L << 3;
+    /** Chunk part of coordinates (if coords-include-chunk is also true). */
+    public static final long CHUNK = 1L << 4;
+    /** Relative movement. */
+    public static final long DXYZ = 1L << 5;
+    public static final long YAWPITCH = 1L << 6;
+    public static final long HEADYAW = 1L << 7;
+    public static final long VELOCITY = 1L << 8;
+    public static final long ONGROUND = 1L << 9;
+    public static final long STANCE = 1L << 10;
+    public static final long METADATA = 1L << 11;
+    /** Multi-block change list. */
+    public static final long BLOCKS = 1L << 12;
+    /** Block type and metadata. */
+    public static final long BLOCK = 1L << 13;
+    public static final long USERNAME = 1L << 14;
+    public static final long ONLINE = 1L << 15;
+    public static final long PING = 1L << 16;
+    /** Item stacks, including their NBT data. */
+    public static final long ITEM = 1L << 17;
+
+    /** Indexed by bit number. */
+    private static final String[] NAMES = {
+        "eid", "entity", "xyz", "region", "chunk", "dxyz", "yawpitch", "headyaw", "velocity",
+        "onground", "stance", "metadata", "blocks", "block", "username", "online", "ping", "item",
+    };
+
+    /** @return the field's bit, or 0 if there is no such field */
+    public static long parse(String name) {
+        for (int bit = 0; bit < NAMES.length; bit++) {
+            if (NAMES[bit].equalsIgnoreCase(name)) {
+                return 1L << bit;
+            }
+        }
+        return 0L;
+    }
+
+    /** @return e.g. "eid,entity,dxyz" */
+    public static String toString(long fields) {
+        StringBuilder result = new StringBuilder();
+        for (int bit = 0; bit < NAMES.length; bit++) {
+            if ((fields & (1L << bit)) != 0) {
+                if (result.length() > 0) {
+                    result.append(',');
+                }
+                result.append(NAMES[bit]);
+            }
+        }
+        return result.toString();
+    }
+}
@@ -1,7 +1,5 @@
 package com.bencvt.minecraft.mcpacketsniffer;
 
-import java.util.HashMap;
-
 import net.minecraft.src.*;
 
 /**
@@ -19,12 +17,16 @@ import net.minecraft.src.*;
  * usually based off the Minecraft Coalition version.
  */
 public class PacketInfo {
-    public static final HashMap<Integer, PacketInfo> ALL_PACKETS = new HashMap<Integer, PacketInfo>();
+    /** Name column width in the packet log, not counting the leading space. */
+    public static final int LOG_COLUMN_WIDTH = 13;
+    private static final PacketInfo[] ALL_PACKETS = new PacketInfo[256];
 
     public final int id;
     public final String shortName;
     public final String name;
     public final Class<? extends Packet> packetClass;
+    /** Pre-rendered name column for the packet log, e.g. " keepalive    ". */
+    public final char[] logColumn;
 
     public PacketInfo(int id, String shortName, String name, Class<? extends Packet> packetClass) {
         this.id = id;
@@ -34,6 +36,11 @@ public class PacketInfo {
         }
         this.name = name;
         this.packetClass = packetClass;
+        StringBuilder column = new StringBuilder(" ").append(shortName);
+        while (column.length() < LOG_COLUMN_WIDTH + 1) {
+            column.append(' ');
+        }
+        logColumn = column.toString().toCharArray();
 
         // Sanity check to make sure the packet ID/class matches Minecraft's
         // internal packet info map. Use isAssignableFrom instead of isEqual
@@ -44,19 +51,24 @@ public class PacketInfo {
         }
     }
 
-    public static String getPacketShortName(int id) {
-        if (!ALL_PACKETS.containsKey(id)) {
+    /** @return the packet info, or null if the id is unknown */
+    public static PacketInfo get(int id) {
+        if (id < 0 || id >= ALL_PACKETS.length) {
             return null;
         }
-        return ALL_PACKETS.get(id).shortName;
+        return ALL_PACKETS[id];
+    }
+
+    public static String getPacketShortName(int id) {
+        PacketInfo packetInfo = get(id);
+        return packetInfo == null ? null : packetInfo.shortName;
     }
 
     private static void add(int id, String shortName, String name, Class<? extends Packet> packetClass) {
-        if (ALL_PACKETS.containsKey(id)) {
+        if (ALL_PACKETS[id] != null) {
             throw new RuntimeException("duplicate definitions for id " + id);
         }
-        PacketInfo packetInfo = new PacketInfo(id, shortName.trim(), name, packetClass);
-        ALL_PACKETS.put(id, packetInfo);
+        ALL_PACKETS[id] = new PacketInfo(id, shortName.trim(), name, packetClass);
     }
 
     static {
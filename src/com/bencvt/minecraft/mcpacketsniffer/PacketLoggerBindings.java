@@ -0,0 +1,584 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import java.lang.reflect.Method;
+
+import net.minecraft.src.*;
+
+/**
+ * One bound {@link PacketLoggerRegistry.Renderer} per
+ * {@link PacketLoggers.PacketLogger}-annotated method, so that dispatching a
+ * packet is a plain virtual call rather than a reflective Method.invoke.
+ * <p>
+ * Keep in sync with PacketLoggers: the registry refuses to start if an
+ * annotated method has no binding here, or if a binding names a different
+ * method or packet class than the annotated method for its id. The compiler
+ * checks that each binding's call matches the packet class it names.
+ */
+public class PacketLoggerBindings {
+    /**
+     * A renderer that calls one named packet logger method.
+     */
+    public static abstract class Binding<P extends Packet> implements PacketLoggerRegistry.Renderer {
+        public final String methodName;
+        public final Class<P> packetClass;
+
+        protected Binding(String methodName, Class<P> packetClass) {
+            this.methodName = methodName;
+            this.packetClass = packetClass;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public final void render(StringBuilder line, PacketDirection dir, Packet packet) {
+            call(line, dir, (P) packet);
+        }
+
+        protected abstract void call(StringBuilder line, PacketDirection dir, P packet);
+
+        /** @return true if this binding calls the given packet logger method */
+        public boolean isBoundTo(Method method) {
+            Class<?>[] params = method.getParameterTypes();
+            return method.getName().equals(methodName) && params.length == 3 && params[2] == packetClass;
+        }
+    }
+
+    private PacketLoggerBindings() {
+        // static methods only
+    }
+
+    /**
+     * @return a renderer calling the packet logger for this id, or null if
+     *         there is none
+     */
+    public static Binding<?> bind(final PacketLoggers loggers, int packetId) {
+        switch (packetId) {
+        case 0x00:
+            return new Binding<Packet0KeepAlive>("logPacketKeepAlive", Packet0KeepAlive.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet0KeepAlive packet) {
+                    loggers.logPacketKeepAlive(line, dir, packet);
+                }
+            };
+        case 0x01:
+            return new Binding<Packet1Login>("logPacketLogin", Packet1Login.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet1Login packet) {
+                    loggers.logPacketLogin(line, dir, packet);
+                }
+            };
+        case 0x02:
+            return new Binding<Packet2ClientProtocol>("logPacketClientProtocol", Packet2ClientProtocol.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet2ClientProtocol packet) {
+                    loggers.logPacketClientProtocol(line, dir, packet);
+                }
+            };
+        case 0x03:
+            return new Binding<Packet3Chat>("logPacketChat", Packet3Chat.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet3Chat packet) {
+                    loggers.logPacketChat(line, dir, packet);
+                }
+            };
+        case 0x04:
+            return new Binding<Packet4UpdateTime>("logPacketUpdateTime", Packet4UpdateTime.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet4UpdateTime packet) {
+                    loggers.logPacketUpdateTime(line, dir, packet);
+                }
+            };
+        case 0x05:
+            return new Binding<Packet5PlayerInventory>("logPacketPlayerInventory", Packet5PlayerInventory.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet5PlayerInventory packet) {
+                    loggers.logPacketPlayerInventory(line, dir, packet);
+                }
+            };
+        case 0x06:
+            return new Binding<Packet6SpawnPosition>("logPacketSpawnPosition", Packet6SpawnPosition.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet6SpawnPosition packet) {
+                    loggers.logPacketSpawnPosition(line, dir, packet);
+                }
+            };
+        case 0x07:
+            return new Binding<Packet7UseEntity>("logPacketUseEntity", Packet7UseEntity.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet7UseEntity packet) {
+                    loggers.logPacketUseEntity(line, dir, packet);
+                }
+            };
+        case 0x08:
+            return new Binding<Packet8UpdateHealth>("logPacketUpdateHealth", Packet8UpdateHealth.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet8UpdateHealth packet) {
+                    loggers.logPacketUpdateHealth(line, dir, packet);
+                }
+            };
+        case 0x09:
+            return new Binding<Packet9Respawn>("logPacketRespawn", Packet9Respawn.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet9Respawn packet) {
+                    loggers.logPacketRespawn(line, dir, packet);
+                }
+            };
+        case 0x0A:
+            return new Binding<Packet10Flying>("logPacketFlying", Packet10Flying.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet10Flying packet) {
+                    loggers.logPacketFlying(line, dir, packet);
+                }
+            };
+        case 0x0B:
+            return new Binding<Packet11PlayerPosition>("logPacketPlayerPosition", Packet11PlayerPosition.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet11PlayerPosition packet) {
+                    loggers.logPacketPlayerPosition(line, dir, packet);
+                }
+            };
+        case 0x0C:
+            return new Binding<Packet12PlayerLook>("logPacketPlayerLook", Packet12PlayerLook.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet12PlayerLook packet) {
+                    loggers.logPacketPlayerLook(line, dir, packet);
+                }
+            };
+        case 0x0D:
+            return new Binding<Packet13PlayerLookMove>("logPacketPlayerLookMove", Packet13PlayerLookMove.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet13PlayerLookMove packet) {
+                    loggers.logPacketPlayerLookMove(line, dir, packet);
+                }
+            };
+        case 0x0E:
+            return new Binding<Packet14BlockDig>("logPacketBlockDig", Packet14BlockDig.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet14BlockDig packet) {
+                    loggers.logPacketBlockDig(line, dir, packet);
+                }
+            };
+        case 0x0F:
+            return new Binding<Packet15Place>("logPacketPlace", Packet15Place.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet15Place packet) {
+                    loggers.logPacketPlace(line, dir, packet);
+                }
+            };
+        case 0x10:
+            return new Binding<Packet16BlockItemSwitch>("logPacketBlockItemSwitch", Packet16BlockItemSwitch.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet16BlockItemSwitch packet) {
+                    loggers.logPacketBlockItemSwitch(line, dir, packet);
+                }
+            };
+        case 0x11:
+            return new Binding<Packet17Sleep>("logPacketSleep", Packet17Sleep.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet17Sleep packet) {
+                    loggers.logPacketSleep(line, dir, packet);
+                }
+            };
+        case 0x12:
+            return new Binding<Packet18Animation>("logPacketAnimation", Packet18Animation.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet18Animation packet) {
+                    loggers.logPacketAnimation(line, dir, packet);
+                }
+            };
+        case 0x13:
+            return new Binding<Packet19EntityAction>("logPacketEntityAction", Packet19EntityAction.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet19EntityAction packet) {
+                    loggers.logPacketEntityAction(line, dir, packet);
+                }
+            };
+        case 0x14:
+            return new Binding<Packet20NamedEntitySpawn>("logPacketNamedEntitySpawn", Packet20NamedEntitySpawn.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet20NamedEntitySpawn packet) {
+                    loggers.logPacketNamedEntitySpawn(line, dir, packet);
+                }
+            };
+        case 0x15:
+            return new Binding<Packet21PickupSpawn>("logPacketPickupSpawn", Packet21PickupSpawn.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet21PickupSpawn packet) {
+                    loggers.logPacketPickupSpawn(line, dir, packet);
+                }
+            };
+        case 0x16:
+            return new Binding<Packet22Collect>("logPacketCollect", Packet22Collect.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet22Collect packet) {
+                    loggers.logPacketCollect(line, dir, packet);
+                }
+            };
+        case 0x17:
+            return new Binding<Packet23VehicleSpawn>("logPacketVehicleSpawn", Packet23VehicleSpawn.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet23VehicleSpawn packet) {
+                    loggers.logPacketVehicleSpawn(line, dir, packet);
+                }
+            };
+        case 0x18:
+            return new Binding<Packet24MobSpawn>("logPacketMobSpawn", Packet24MobSpawn.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet24MobSpawn packet) {
+                    loggers.logPacketMobSpawn(line, dir, packet);
+                }
+            };
+        case 0x19:
+            return new Binding<Packet25EntityPainting>("logPacketEntityPainting", Packet25EntityPainting.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet25EntityPainting packet) {
+                    loggers.logPacketEntityPainting(line, dir, packet);
+                }
+            };
+        case 0x1A:
+            return new Binding<Packet26EntityExpOrb>("logPacketEntityExpOrb", Packet26EntityExpOrb.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet26EntityExpOrb packet) {
+                    loggers.logPacketEntityExpOrb(line, dir, packet);
+                }
+            };
+        case 0x1C:
+            return new Binding<Packet28EntityVelocity>("logPacketEntityVelocity", Packet28EntityVelocity.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet28EntityVelocity packet) {
+                    loggers.logPacketEntityVelocity(line, dir, packet);
+                }
+            };
+        case 0x1D:
+            return new Binding<Packet29DestroyEntity>("logPacketDestroyEntity", Packet29DestroyEntity.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet29DestroyEntity packet) {
+                    loggers.logPacketDestroyEntity(line, dir, packet);
+                }
+            };
+        case 0x1E:
+            return new Binding<Packet30Entity>("logPacketEntity", Packet30Entity.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet30Entity packet) {
+                    loggers.logPacketEntity(line, dir, packet);
+                }
+            };
+        case 0x1F:
+            return new Binding<Packet31RelEntityMove>("logPacketRelEntityMove", Packet31RelEntityMove.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet31RelEntityMove packet) {
+                    loggers.logPacketRelEntityMove(line, dir, packet);
+                }
+            };
+        case 0x20:
+            return new Binding<Packet32EntityLook>("logPacketEntityLook", Packet32EntityLook.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet32EntityLook packet) {
+                    loggers.logPacketEntityLook(line, dir, packet);
+                }
+            };
+        case 0x21:
+            return new Binding<Packet33RelEntityMoveLook>("logPacketRelEntityMoveLook", Packet33RelEntityMoveLook.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet33RelEntityMoveLook packet) {
+                    loggers.logPacketRelEntityMoveLook(line, dir, packet);
+                }
+            };
+        case 0x22:
+            return new Binding<Packet34EntityTeleport>("logPacketEntityTeleport", Packet34EntityTeleport.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet34EntityTeleport packet) {
+                    loggers.logPacketEntityTeleport(line, dir, packet);
+                }
+            };
+        case 0x23:
+            return new Binding<Packet35EntityHeadRotation>("logPacketEntityHeadRotation", Packet35EntityHeadRotation.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet35EntityHeadRotation packet) {
+                    loggers.logPacketEntityHeadRotation(line, dir, packet);
+                }
+            };
+        case 0x26:
+            return new Binding<Packet38EntityStatus>("logPacketEntityStatus", Packet38EntityStatus.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet38EntityStatus packet) {
+                    loggers.logPacketEntityStatus(line, dir, packet);
+                }
+            };
+        case 0x27:
+            return new Binding<Packet39AttachEntity>("logPacketAttachEntity", Packet39AttachEntity.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet39AttachEntity packet) {
+                    loggers.logPacketAttachEntity(line, dir, packet);
+                }
+            };
+        case 0x28:
+            return new Binding<Packet40EntityMetadata>("logPacketEntityMetadata", Packet40EntityMetadata.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet40EntityMetadata packet) {
+                    loggers.logPacketEntityMetadata(line, dir, packet);
+                }
+            };
+        case 0x29:
+            return new Binding<Packet41EntityEffect>("logPacketEntityEffect", Packet41EntityEffect.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet41EntityEffect packet) {
+                    loggers.logPacketEntityEffect(line, dir, packet);
+                }
+            };
+        case 0x2A:
+            return new Binding<Packet42RemoveEntityEffect>("logPacketRemoveEntityEffect", Packet42RemoveEntityEffect.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet42RemoveEntityEffect packet) {
+                    loggers.logPacketRemoveEntityEffect(line, dir, packet);
+                }
+            };
+        case 0x2B:
+            return new Binding<Packet43Experience>("logPacketExperience", Packet43Experience.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet43Experience packet) {
+                    loggers.logPacketExperience(line, dir, packet);
+                }
+            };
+        case 0x33:
+            return new Binding<Packet51MapChunk>("logPacketMapChunk", Packet51MapChunk.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet51MapChunk packet) {
+                    loggers.logPacketMapChunk(line, dir, packet);
+                }
+            };
+        case 0x34:
+            return new Binding<Packet52MultiBlockChange>("logPacketMultiBlockChange", Packet52MultiBlockChange.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet52MultiBlockChange packet) {
+                    loggers.logPacketMultiBlockChange(line, dir, packet);
+                }
+            };
+        case 0x35:
+            return new Binding<Packet53BlockChange>("logPacketBlockChange", Packet53BlockChange.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet53BlockChange packet) {
+                    loggers.logPacketBlockChange(line, dir, packet);
+                }
+            };
+        case 0x36:
+            return new Binding<Packet54PlayNoteBlock>("logPacketPlayNoteBlock", Packet54PlayNoteBlock.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet54PlayNoteBlock packet) {
+                    loggers.logPacketPlayNoteBlock(line, dir, packet);
+                }
+            };
+        case 0x37:
+            return new Binding<Packet55BlockDestroy>("logPacketBlockDestroy", Packet55BlockDestroy.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet55BlockDestroy packet) {
+                    loggers.logPacketBlockDestroy(line, dir, packet);
+                }
+            };
+        case 0x38:
+            return new Binding<Packet56MapChunks>("logPacketMapChunks", Packet56MapChunks.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet56MapChunks packet) {
+                    loggers.logPacketMapChunks(line, dir, packet);
+                }
+            };
+        case 0x3C:
+            return new Binding<Packet60Explosion>("logPacketExplosion", Packet60Explosion.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet60Explosion packet) {
+                    loggers.logPacketExplosion(line, dir, packet);
+                }
+            };
+        case 0x3D:
+            return new Binding<Packet61DoorChange>("logPacketDoorChange", Packet61DoorChange.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet61DoorChange packet) {
+                    loggers.logPacketDoorChange(line, dir, packet);
+                }
+            };
+        case 0x3E:
+            return new Binding<Packet62LevelSound>("logPacketLevelSound", Packet62LevelSound.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet62LevelSound packet) {
+                    loggers.logPacketLevelSound(line, dir, packet);
+                }
+            };
+        case 0x46:
+            return new Binding<Packet70GameEvent>("logPacketGameEvent", Packet70GameEvent.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet70GameEvent packet) {
+                    loggers.logPacketGameEvent(line, dir, packet);
+                }
+            };
+        case 0x47:
+            return new Binding<Packet71Weather>("logPacketWeather", Packet71Weather.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet71Weather packet) {
+                    loggers.logPacketWeather(line, dir, packet);
+                }
+            };
+        case 0x64:
+            return new Binding<Packet100OpenWindow>("logPacketOpenWindow", Packet100OpenWindow.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet100OpenWindow packet) {
+                    loggers.logPacketOpenWindow(line, dir, packet);
+                }
+            };
+        case 0x65:
+            return new Binding<Packet101CloseWindow>("logPacketCloseWindow", Packet101CloseWindow.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet101CloseWindow packet) {
+                    loggers.logPacketCloseWindow(line, dir, packet);
+                }
+            };
+        case 0x66:
+            return new Binding<Packet102WindowClick>("logPacketWindowClick", Packet102WindowClick.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet102WindowClick packet) {
+                    loggers.logPacketWindowClick(line, dir, packet);
+                }
+            };
+        case 0x67:
+            return new Binding<Packet103SetSlot>("logPacketSetSlot", Packet103SetSlot.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet103SetSlot packet) {
+                    loggers.logPacketSetSlot(line, dir, packet);
+                }
+            };
+        case 0x68:
+            return new Binding<Packet104WindowItems>("logPacketWindowItems", Packet104WindowItems.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet104WindowItems packet) {
+                    loggers.logPacketWindowItems(line, dir, packet);
+                }
+            };
+        case 0x69:
+            return new Binding<Packet105UpdateProgressbar>("logPacketUpdateProgressbar", Packet105UpdateProgressbar.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet105UpdateProgressbar packet) {
+                    loggers.logPacketUpdateProgressbar(line, dir, packet);
+                }
+            };
+        case 0x6A:
+            return new Binding<Packet106Transaction>("logPacketTransaction", Packet106Transaction.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet106Transaction packet) {
+                    loggers.logPacketTransaction(line, dir, packet);
+                }
+            };
+        case 0x6B:
+            return new Binding<Packet107CreativeSetSlot>("logPacketCreativeSetSlot", Packet107CreativeSetSlot.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet107CreativeSetSlot packet) {
+                    loggers.logPacketCreativeSetSlot(line, dir, packet);
+                }
+            };
+        case 0x6C:
+            return new Binding<Packet108EnchantItem>("logPacketEnchantItem", Packet108EnchantItem.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet108EnchantItem packet) {
+                    loggers.logPacketEnchantItem(line, dir, packet);
+                }
+            };
+        case 0x82:
+            return new Binding<Packet130UpdateSign>("logPacketUpdateSign", Packet130UpdateSign.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet130UpdateSign packet) {
+                    loggers.logPacketUpdateSign(line, dir, packet);
+                }
+            };
+        case 0x83:
+            return new Binding<Packet131MapData>("logPacketMapData", Packet131MapData.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet131MapData packet) {
+                    loggers.logPacketMapData(line, dir, packet);
+                }
+            };
+        case 0x84:
+            return new Binding<Packet132TileEntityData>("logPacketTileEntityData", Packet132TileEntityData.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet132TileEntityData packet) {
+                    loggers.logPacketTileEntityData(line, dir, packet);
+                }
+            };
+        case 0xC8:
+            return new Binding<Packet200Statistic>("logPacketStatistic", Packet200Statistic.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet200Statistic packet) {
+                    loggers.logPacketStatistic(line, dir, packet);
+                }
+            };
+        case 0xC9:
+            return new Binding<Packet201PlayerInfo>("logPacketPlayerInfo", Packet201PlayerInfo.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet201PlayerInfo packet) {
+                    loggers.logPacketPlayerInfo(line, dir, packet);
+                }
+            };
+        case 0xCA:
+            return new Binding<Packet202PlayerAbilities>("logPacketPlayerAbilities", Packet202PlayerAbilities.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet202PlayerAbilities packet) {
+                    loggers.logPacketPlayerAbilities(line, dir, packet);
+                }
+            };
+        case 0xCB:
+            return new Binding<Packet203AutoComplete>("logPacketAutoComplete", Packet203AutoComplete.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet203AutoComplete packet) {
+                    loggers.logPacketAutoComplete(line, dir, packet);
+                }
+            };
+        case 0xCC:
+            return new Binding<Packet204ClientInfo>("logPacketClientInfo", Packet204ClientInfo.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet204ClientInfo packet) {
+                    loggers.logPacketClientInfo(line, dir, packet);
+                }
+            };
+        case 0xCD:
+            return new Binding<Packet205ClientCommand>("logPacketClientCommand", Packet205ClientCommand.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet205ClientCommand packet) {
+                    loggers.logPacketClientCommand(line, dir, packet);
+                }
+            };
+        case 0xFA:
+            return new Binding<Packet250CustomPayload>("logPacketCustomPayload", Packet250CustomPayload.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet250CustomPayload packet) {
+                    loggers.logPacketCustomPayload(line, dir, packet);
+                }
+            };
+        case 0xFC:
+            return new Binding<Packet252SharedKey>("logPacketSharedKey", Packet252SharedKey.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet252SharedKey packet) {
+                    loggers.logPacketSharedKey(line, dir, packet);
+                }
+            };
+        case 0xFD:
+            return new Binding<Packet253ServerAuthData>("logPacketServerAuthData", Packet253ServerAuthData.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet253ServerAuthData packet) {
+                    loggers.logPacketServerAuthData(line, dir, packet);
+                }
+            };
+        case 0xFE:
+            return new Binding<Packet254ServerPing>("logPacketServerPing", Packet254ServerPing.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet254ServerPing packet) {
+                    loggers.logPacketServerPing(line, dir, packet);
+                }
+            };
+        case 0xFF:
+            return new Binding<Packet255KickDisconnect>("logPacketKickDisconnect", Packet255KickDisconnect.class) {
+                @Override
+                protected void call(StringBuilder line, PacketDirection dir, Packet255KickDisconnect packet) {
+                    loggers.logPacketKickDisconnect(line, dir, packet);
+                }
+            };
+        default:
+            return null;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import java.lang.reflect.Method;
+
+import net.minecraft.src.Packet;
+
+/**
+ * Maps each packet id to the renderer that turns it into the rest of a log
+ * line, replacing a big switch statement with a single array lookup.
+ * <p>
+ * The built-in renderers are bound once, at startup, to the
+ * {@link PacketLoggers.PacketLogger}-annotated methods (see
+ * {@link PacketLoggerBindings}), so dispatch is a direct call. The
+ * annotations are read for validation and metadata. Other mods and tools
+ * can replace or add a renderer for any packet id at runtime using
+ * {@link #setRenderer}.
+ * <p>
+ * Also exposes per-packet-id metadata for other subsystems: name, whether the
+ * packet type is high-volume ("hot"), and the expected rendered line length.
+ */
+public class PacketLoggerRegistry {
+    public interface Renderer {
+        /**
+         * Append everything after the common line header (timestamp,
+         * direction, packet id/name).
+         */
+        public void render(StringBuilder line, PacketDirection dir, Packet packet);
+    }
+
+    /** Used for any packet id that has no renderer. */
+    private static final Renderer UNHANDLED = new Renderer() {
+        @Override
+        public void render(StringBuilder line, PacketDirection dir, Packet packet) {
+            Controller.getEventLog().severe("unhandled packet id=" + packet.getPacketId() + " class=" + packet.getClass());
+            PacketLoggersBase.logApproximatePacketPayloadSize(line, packet);
+            // we don't have access to the actual payload
+        }
+    };
+
+    private final Renderer[] builtIn = new Renderer[256];
+    private final boolean[] hot = new boolean[256];
+    private final long[] selectableFields = new long[256];
+    /** Copy-on-write, so dispatch never has to lock. */
+    private volatile Renderer[] renderers;
+
+    public PacketLoggerRegistry(PacketLoggers packetLoggers) {
+        for (Method method : packetLoggers.getClass().getMethods()) {
+            PacketLoggers.PacketLogger annotation = method.getAnnotation(PacketLoggers.PacketLogger.class);
+            if (annotation == null) {
+                continue;
+            }
+            int id = annotation.id();
+            Class<?>[] params = method.getParameterTypes();
+            if (id != annotation.hex() || id < 0 || id > 255) {
+                throw new RuntimeException("invalid packet id on " + method);
+            }
+            if (params.length != 3 || params[0] != StringBuilder.class || params[1] != PacketDirection.class) {
+                throw new RuntimeException("invalid packet logger signature: " + method);
+            }
+            PacketInfo info = PacketInfo.get(id);
+            if (info == null || !params[2].isAssignableFrom(info.packetClass)) {
+                throw new RuntimeException("packet logger doesn't match PacketInfo: " + method);
+            }
+            if (builtIn[id] != null) {
+                throw new RuntimeException("duplicate packet loggers for id " + id);
+            }
+            PacketLoggerBindings.Binding<?> binding = PacketLoggerBindings.bind(packetLoggers, id);
+            if (binding == null) {
+                throw new RuntimeException("packet logger missing from PacketLoggerBindings: " + method);
+            }
+            if (!binding.isBoundTo(method)) {
+                throw new RuntimeException("PacketLoggerBindings has " + binding.methodName + "(" +
+                        binding.packetClass.getSimpleName() + ") for id " + id + ", expected " + method);
+            }
+            builtIn[id] = binding;
+            hot[id] = annotation.hot();
+            selectableFields[id] = annotation.fields();
+        }
+        Renderer[] initial = new Renderer[256];
+        for (int id = 0; id < 256; id++) {
+            initial[id] = builtIn[id] == null ? UNHANDLED : builtIn[id];
+        }
+        renderers = initial;
+    }
+
+    public void dispatch(StringBuilder line, PacketDirection dir, Packet packet) {
+        renderers[packet.getPacketId() & 0xFF].render(line, dir, packet);
+    }
+
+    public Renderer getRenderer(int packetId) {
+        return renderers[packetId];
+    }
+
+    /**
+     * Replace the renderer for a packet id.
+     * @param renderer the new renderer, or null to restore the built-in one
+     * @return the previous renderer
+     */
+    public synchronized Renderer setRenderer(int packetId, Renderer renderer) {
+        if (renderer == null) {
+            renderer = builtIn[packetId] == null ? UNHANDLED : builtIn[packetId];
+        }
+        Renderer[] updated = renderers.clone();
+        Renderer previous = updated[packetId];
+        updated[packetId] = renderer;
+        renderers = updated;
+        return previous;
+    }
+
+    //
+    // Metadata
+    //
+
+    /** @return the short name used in the log, e.g. "ent relmove", or null if unknown */
+    public String getName(int packetId) {
+        return PacketInfo.getPacketShortName(packetId);
+    }
+
+    /** @return true for high-volume packet types, e.g. entity movement */
+    public boolean isHot(int packetId) {
+        return hot[packetId];
+    }
+
+    /**
+     * @return the {@link PacketFields} the packet type's logger can render
+     *         selectively, 0 if none
+     */
+    public long getSelectableFields(int packetId) {
+        return selectableFields[packetId];
+    }
+
+    /** @return the recently observed rendered line length, in bytes */
+    public int getEstimatedLineLength(int packetId) {
+        return LineBuffer.getExpectedLength(packetId);
+    }
+}
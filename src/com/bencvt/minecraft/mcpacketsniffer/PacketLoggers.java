@@ -1,8 +1,9 @@
 package com.bencvt.minecraft.mcpacketsniffer;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
-import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
 import java.util.List;
 
 import net.minecraft.src.*;
@@ -11,94 +12,19 @@ import net.minecraft.src.*;
  * Worker class that converts each Packet type into a log line.
  */
 public class PacketLoggers extends PacketLoggersBase {
-    // Annotation just for documentation. No reflection magic for dispatching for now.
+    /**
+     * Marks a packet logger method. {@link PacketLoggerRegistry} binds every
+     * annotated method to its packet id at startup.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
     public @interface PacketLogger {
         int id();
         int hex();
-    }
-
-    public void dispatch(StringBuilder line, PacketDirection dir, Packet packet) {
-        switch (packet.getPacketId()) {
-        case 0x00: logPacketKeepAlive(line, dir, (Packet0KeepAlive) packet); break;
-        case 0x01: logPacketLogin(line, dir, (Packet1Login) packet); break;
-        case 0x02: logPacketClientProtocol(line, dir, (Packet2ClientProtocol) packet); break;
-        case 0x03: logPacketChat(line, dir, (Packet3Chat) packet); break;
-        case 0x04: logPacketUpdateTime(line, dir, (Packet4UpdateTime) packet); break;
-        case 0x05: logPacketPlayerInventory(line, dir, (Packet5PlayerInventory) packet); break;
-        case 0x06: logPacketSpawnPosition(line, dir, (Packet6SpawnPosition) packet); break;
-        case 0x07: logPacketUseEntity(line, dir, (Packet7UseEntity) packet); break;
-        case 0x08: logPacketUpdateHealth(line, dir, (Packet8UpdateHealth) packet); break;
-        case 0x09: logPacketRespawn(line, dir, (Packet9Respawn) packet); break;
-        case 0x0A: logPacketFlying(line, dir, (Packet10Flying) packet); break;
-        case 0x0B: logPacketPlayerPosition(line, dir, (Packet11PlayerPosition) packet); break;
-        case 0x0C: logPacketPlayerLook(line, dir, (Packet12PlayerLook) packet); break;
-        case 0x0D: logPacketPlayerLookMove(line, dir, (Packet13PlayerLookMove) packet); break;
-        case 0x0E: logPacketBlockDig(line, dir, (Packet14BlockDig) packet); break;
-        case 0x0F: logPacketPlace(line, dir, (Packet15Place) packet); break;
-        case 0x10: logPacketBlockItemSwitch(line, dir, (Packet16BlockItemSwitch) packet); break;
-        case 0x11: logPacketSleep(line, dir, (Packet17Sleep) packet); break;
-        case 0x12: logPacketAnimation(line, dir, (Packet18Animation) packet); break;
-        case 0x13: logPacketEntityAction(line, dir, (Packet19EntityAction) packet); break;
-        case 0x14: logPacketNamedEntitySpawn(line, dir, (Packet20NamedEntitySpawn) packet); break;
-        case 0x15: logPacketPickupSpawn(line, dir, (Packet21PickupSpawn) packet); break;
-        case 0x16: logPacketCollect(line, dir, (Packet22Collect) packet); break;
-        case 0x17: logPacketVehicleSpawn(line, dir, (Packet23VehicleSpawn) packet); break;
-        case 0x18: logPacketMobSpawn(line, dir, (Packet24MobSpawn) packet); break;
-        case 0x19: logPacketEntityPainting(line, dir, (Packet25EntityPainting) packet); break;
-        case 0x1A: logPacketEntityExpOrb(line, dir, (Packet26EntityExpOrb) packet); break;
-        case 0x1C: logPacketEntityVelocity(line, dir, (Packet28EntityVelocity) packet); break;
-        case 0x1D: logPacketDestroyEntity(line, dir, (Packet29DestroyEntity) packet); break;
-        case 0x1E: logPacketEntity(line, dir, (Packet30Entity) packet); break;
-        case 0x1F: logPacketRelEntityMove(line, dir, (Packet31RelEntityMove) packet); break;
-        case 0x20: logPacketEntityLook(line, dir, (Packet32EntityLook) packet); break;
-        case 0x21: logPacketRelEntityMoveLook(line, dir, (Packet33RelEntityMoveLook) packet); break;
-        case 0x22: logPacketEntityTeleport(line, dir, (Packet34EntityTeleport) packet); break;
-        case 0x23: logPacketEntityHeadRotation(line, dir, (Packet35EntityHeadRotation) packet); break;
-        case 0x26: logPacketEntityStatus(line, dir, (Packet38EntityStatus) packet); break;
-        case 0x27: logPacketAttachEntity(line, dir, (Packet39AttachEntity) packet); break;
-        case 0x28: logPacketEntityMetadata(line, dir, (Packet40EntityMetadata) packet); break;
-        case 0x29: logPacketEntityEffect(line, dir, (Packet41EntityEffect) packet); break;
-        case 0x2A: logPacketRemoveEntityEffect(line, dir, (Packet42RemoveEntityEffect) packet); break;
-        case 0x2B: logPacketExperience(line, dir, (Packet43Experience) packet); break;
-        case 0x33: logPacketMapChunk(line, dir, (Packet51MapChunk) packet); break;
-        case 0x34: logPacketMultiBlockChange(line, dir, (Packet52MultiBlockChange) packet); break;
-        case 0x35: logPacketBlockChange(line, dir, (Packet53BlockChange) packet); break;
-        case 0x36: logPacketPlayNoteBlock(line, dir, (Packet54PlayNoteBlock) packet); break;
-        case 0x37: logPacketBlockDestroy(line, dir, (Packet55BlockDestroy) packet); break;
-        case 0x38: logPacketMapChunks(line, dir, (Packet56MapChunks) packet); break;
-        case 0x3C: logPacketExplosion(line, dir, (Packet60Explosion) packet); break;
-        case 0x3D: logPacketDoorChange(line, dir, (Packet61DoorChange) packet); break;
-        case 0x3E: logPacketLevelSound(line, dir, (Packet62LevelSound) packet); break;
-        case 0x46: logPacketGameEvent(line, dir, (Packet70GameEvent) packet); break;
-        case 0x47: logPacketWeather(line, dir, (Packet71Weather) packet); break;
-        case 0x64: logPacketOpenWindow(line, dir, (Packet100OpenWindow) packet); break;
-        case 0x65: logPacketCloseWindow(line, dir, (Packet101CloseWindow) packet); break;
-        case 0x66: logPacketWindowClick(line, dir, (Packet102WindowClick) packet); break;
-        case 0x67: logPacketSetSlot(line, dir, (Packet103SetSlot) packet); break;
-        case 0x68: logPacketWindowItems(line, dir, (Packet104WindowItems) packet); break;
-        case 0x69: logPacketUpdateProgressbar(line, dir, (Packet105UpdateProgressbar) packet); break;
-        case 0x6A: logPacketTransaction(line, dir, (Packet106Transaction) packet); break;
-        case 0x6B: logPacketCreativeSetSlot(line, dir, (Packet107CreativeSetSlot) packet); break;
-        case 0x6C: logPacketEnchantItem(line, dir, (Packet108EnchantItem) packet); break;
-        case 0x82: logPacketUpdateSign(line, dir, (Packet130UpdateSign) packet); break;
-        case 0x83: logPacketMapData(line, dir, (Packet131MapData) packet); break;
-        case 0x84: logPacketTileEntityData(line, dir, (Packet132TileEntityData) packet); break;
-        case 0xC8: logPacketStatistic(line, dir, (Packet200Statistic) packet); break;
-        case 0xC9: logPacketPlayerInfo(line, dir, (Packet201PlayerInfo) packet); break;
-        case 0xCA: logPacketPlayerAbilities(line, dir, (Packet202PlayerAbilities) packet); break;
-        case 0xCB: logPacketAutoComplete(line, dir, (Packet203AutoComplete) packet); break;
-        case 0xCC: logPacketClientInfo(line, dir, (Packet204ClientInfo) packet); break;
-        case 0xCD: logPacketClientCommand(line, dir, (Packet205ClientCommand) packet); break;
-        case 0xFA: logPacketCustomPayload(line, dir, (Packet250CustomPayload) packet); break;
-        case 0xFC: logPacketSharedKey(line, dir, (Packet252SharedKey) packet); break;
-        case 0xFD: logPacketServerAuthData(line, dir, (Packet253ServerAuthData) packet); break;
-        case 0xFE: logPacketServerPing(line, dir, (Packet254ServerPing) packet); break;
-        case 0xFF: logPacketKickDisconnect(line, dir, (Packet255KickDisconnect) packet); break;
-        default:
-            Controller.getEventLog().severe("unhandled packet id=" + packet.getPacketId() + " class=" + packet.getClass());
-            logApproximatePacketPayloadSize(line, packet);
-            // we don't have access to the actual payload
-        }
+        /** True for high-volume packet types. */
+        boolean hot() default false;
+        /** {@link PacketFields} that can be selected using packet-fields. */
+        long fields() default 0L;
     }
 
     //
@@ -148,12 +74,16 @@ public class PacketLoggers extends PacketLoggersBase {
         line.append(" timeofday= ").append(packet.time); // ticks modulo 24000
     }
 
-    @PacketLogger(id=5, hex=0x05)
+    @PacketLogger(id=5, hex=0x05, fields=PacketFields.EID | PacketFields.ENTITY | PacketFields.ITEM)
     public void logPacketPlayerInventory(StringBuilder line, PacketDirection dir, Packet5PlayerInventory packet) {
-        logExistingEntity(line, packet.entityID);
-        line.append(" slot=").append(packet.slot);
-        line.append(" item=");
-        logItemStack(line, packet.getItemSlot());
+        long fields = selectedFields(packet);
+        int start = line.length();
+        logEntity(line, packet.entityID, fields);
+        logField(line, start, "slot=").append(packet.slot);
+        if ((fields & PacketFields.ITEM) != 0) {
+            line.append(" item=");
+            logItemStack(line, packet.getItemSlot());
+        }
     }
 
     @PacketLogger(id=6, hex=0x06)
@@ -173,7 +103,8 @@ public class PacketLoggers extends PacketLoggersBase {
     public void logPacketUpdateHealth(StringBuilder line, PacketDirection dir, Packet8UpdateHealth packet) {
         line.append("health=").append(packet.healthMP);
         line.append(" food=").append(packet.food);
-        line.append(" foodsaturation=").append(String.format("%.1f", packet.foodSaturation));
+        line.append(" foodsaturation=");
+        NumberFormatter.appendFixed(line, packet.foodSaturation, 1);
     }
 
     @PacketLogger(id=9, hex=0x09)
@@ -189,27 +120,50 @@ public class PacketLoggers extends PacketLoggersBase {
         logWorldType(line, packet.terrainType);
     }
 
-    @PacketLogger(id=10, hex=0x0A)
+    @PacketLogger(id=10, hex=0x0A, hot=true, fields=PacketFields.ONGROUND)
     public void logPacketFlying(StringBuilder line, PacketDirection dir, Packet10Flying packet) {
-        line.append("onground=").append(packet.onGround);
+        long fields = selectedFields(packet);
+        int start = line.length();
+        if ((fields & PacketFields.ONGROUND) != 0) {
+            logField(line, start, "onground=").append(packet.onGround);
+        }
     }
 
-    @PacketLogger(id=11, hex=0x0B)
+    @PacketLogger(id=11, hex=0x0B, hot=true, fields=PacketFields.XYZ | PacketFields.REGION | PacketFields.CHUNK
+            | PacketFields.ONGROUND | PacketFields.STANCE)
     public void logPacketPlayerPosition(StringBuilder line, PacketDirection dir, Packet11PlayerPosition packet) {
-        logCoordsBlockXYZ(line, (int) packet.xPosition, (int) packet.yPosition, (int) packet.zPosition);
-        line.append(" onground=").append(packet.onGround);
-        line.append(" stance=").append(String.format("%.1f", packet.stance));
+        long fields = selectedFields(packet);
+        int start = line.length();
+        if ((fields & PacketFields.XYZ) != 0) {
+            logCoordsBlockXYZ(line, (int) packet.xPosition, (int) packet.yPosition, (int) packet.zPosition, fields);
+        }
+        if ((fields & PacketFields.ONGROUND) != 0) {
+            logField(line, start, "onground=").append(packet.onGround);
+        }
+        if ((fields & PacketFields.STANCE) != 0) {
+            logField(line, start, "stance=");
+            NumberFormatter.appendFixed(line, packet.stance, 1);
+        }
     }
 
-    @PacketLogger(id=12, hex=0x0C)
+    @PacketLogger(id=12, hex=0x0C, hot=true, fields=PacketFields.ONGROUND | PacketFields.YAWPITCH)
     public void logPacketPlayerLook(StringBuilder line, PacketDirection dir, Packet12PlayerLook packet) {
-        line.append("onground=").append(packet.onGround);
-        line.append(" yawpitch=");
-        logAngleFloat(line, packet.yaw, packet.pitch);
+        long fields = selectedFields(packet);
+        int start = line.length();
+        if ((fields & PacketFields.ONGROUND) != 0) {
+            logField(line, start, "onground=").append(packet.onGround);
+        }
+        if ((fields & PacketFields.YAWPITCH) != 0) {
+            logField(line, start, "yawpitch=");
+            logAngleFloat(line, packet.yaw, packet.pitch);
+        }
     }
 
-    @PacketLogger(id=13, hex=0x0D)
+    @PacketLogger(id=13, hex=0x0D, hot=true, fields=PacketFields.XYZ | PacketFields.REGION | PacketFields.CHUNK
+            | PacketFields.ONGROUND | PacketFields.STANCE | PacketFields.YAWPITCH)
     public void logPacketPlayerLookMove(StringBuilder line, PacketDirection dir, Packet13PlayerLookMove packet) {
+        long fields = selectedFields(packet);
+        int start = line.length();
         double realY = packet.yPosition;
         double realStance = packet.stance;
         if (dir == PacketDirection.S2C) {
@@ -218,11 +172,20 @@ public class PacketLoggers extends PacketLoggersBase {
             realY = realStance;
             realStance = tmp;
         }
-        logCoordsBlockXYZ(line, (int) packet.xPosition, (int) realY, (int) packet.zPosition);
-        line.append(" onground=").append(packet.onGround);
-        line.append(" stance=").append(String.format("%.1f", realStance));
-        line.append(" yawpitch=");
-        logAngleFloat(line, packet.yaw, packet.pitch);
+        if ((fields & PacketFields.XYZ) != 0) {
+            logCoordsBlockXYZ(line, (int) packet.xPosition, (int) realY, (int) packet.zPosition, fields);
+        }
+        if ((fields & PacketFields.ONGROUND) != 0) {
+            logField(line, start, "onground=").append(packet.onGround);
+        }
+        if ((fields & PacketFields.STANCE) != 0) {
+            logField(line, start, "stance=");
+            NumberFormatter.appendFixed(line, realStance, 1);
+        }
+        if ((fields & PacketFields.YAWPITCH) != 0) {
+            logField(line, start, "yawpitch=");
+            logAngleFloat(line, packet.yaw, packet.pitch);
+        }
     }
 
     @PacketLogger(id=14, hex=0x0E)
@@ -241,9 +204,12 @@ public class PacketLoggers extends PacketLoggersBase {
         CodeTable.facing3D.log(line, packet.getDirection());
         line.append(" helditem=");
         logItemStack(line, packet.getItemStack());
-        line.append(" cursorx=").append(String.format("%.1f", packet.getXOffset()));
-        line.append(" cursory=").append(String.format("%.1f", packet.getYOffset()));
-        line.append(" cursorz=").append(String.format("%.1f", packet.getZOffset()));
+        line.append(" cursorx=");
+        NumberFormatter.appendFixed(line, packet.getXOffset(), 1);
+        line.append(" cursory=");
+        NumberFormatter.appendFixed(line, packet.getYOffset(), 1);
+        line.append(" cursorz=");
+        NumberFormatter.appendFixed(line, packet.getZOffset(), 1);
     }
 
     @PacketLogger(id=16, hex=0x10)
@@ -283,8 +249,7 @@ public class PacketLoggers extends PacketLoggersBase {
         logAngleByte(line, packet.rotation, packet.pitch);
         line.append(" helditem=");
         logItemType(line, packet.currentItem);
-        line.append(" metadata=");
-        logEntityMetadata(line, packet.func_73509_c());
+        logEntityMetadata(line, packet.entityId, packet.func_73509_c(), true);
     }
 
     @PacketLogger(id=21, hex=0x15)
@@ -335,8 +300,7 @@ public class PacketLoggers extends PacketLoggersBase {
         logAngleByte(line, packet.headYaw);
         line.append(" velocity=");
         logVelocityShort(line, packet.velocityX, packet.velocityY, packet.velocityZ);
-        line.append(" metadata=");
-        logEntityMetadata(line, packet.getMetadata());
+        logEntityMetadata(line, packet.entityId, packet.getMetadata(), true);
     }
 
     @PacketLogger(id=25, hex=0x19)
@@ -355,11 +319,15 @@ public class PacketLoggers extends PacketLoggersBase {
         line.append(" expvalue=").append(packet.xpValue);
     }
 
-    @PacketLogger(id=28, hex=0x1C)
+    @PacketLogger(id=28, hex=0x1C, hot=true, fields=PacketFields.EID | PacketFields.ENTITY | PacketFields.VELOCITY)
     public void logPacketEntityVelocity(StringBuilder line, PacketDirection dir, Packet28EntityVelocity packet) {
-        logExistingEntity(line, packet.entityId);
-        line.append(" velocity=");
-        logVelocityShort(line, packet.motionX, packet.motionY, packet.motionZ);
+        long fields = selectedFields(packet);
+        int start = line.length();
+        logEntity(line, packet.entityId, fields);
+        if ((fields & PacketFields.VELOCITY) != 0) {
+            logField(line, start, "velocity=");
+            logVelocityShort(line, packet.motionX, packet.motionY, packet.motionZ);
+        }
     }
 
     @PacketLogger(id=29, hex=0x1D)
@@ -375,48 +343,74 @@ public class PacketLoggers extends PacketLoggersBase {
         line.append(']');
     }
 
-    @PacketLogger(id=30, hex=0x1E)
+    @PacketLogger(id=30, hex=0x1E, hot=true, fields=PacketFields.EID | PacketFields.ENTITY)
     public void logPacketEntity(StringBuilder line, PacketDirection dir, Packet30Entity packet) {
-        logExistingEntity(line, packet.entityId);
+        logEntity(line, packet.entityId, selectedFields(packet));
     }
 
-    @PacketLogger(id=31, hex=0x1F)
+    @PacketLogger(id=31, hex=0x1F, hot=true, fields=PacketFields.EID | PacketFields.ENTITY | PacketFields.DXYZ)
     public void logPacketRelEntityMove(StringBuilder line, PacketDirection dir, Packet31RelEntityMove packet) {
-        logExistingEntity(line, packet.entityId);
-        line.append(" relmove=");
-        logRelativeMove(line, packet.xPosition, packet.yPosition, packet.zPosition);
+        long fields = selectedFields(packet);
+        int start = line.length();
+        logEntity(line, packet.entityId, fields);
+        if ((fields & PacketFields.DXYZ) != 0) {
+            logField(line, start, "relmove=");
+            logRelativeMove(line, packet.xPosition, packet.yPosition, packet.zPosition);
+        }
     }
 
-    @PacketLogger(id=32, hex=0x20)
+    @PacketLogger(id=32, hex=0x20, hot=true, fields=PacketFields.EID | PacketFields.ENTITY | PacketFields.YAWPITCH)
     public void logPacketEntityLook(StringBuilder line, PacketDirection dir, Packet32EntityLook packet) {
-        logExistingEntity(line, packet.entityId);
-        line.append(" yawpitch=");
-        logAngleByte(line, packet.yaw, packet.pitch);
+        long fields = selectedFields(packet);
+        int start = line.length();
+        logEntity(line, packet.entityId, fields);
+        if ((fields & PacketFields.YAWPITCH) != 0) {
+            logField(line, start, "yawpitch=");
+            logAngleByte(line, packet.yaw, packet.pitch);
+        }
     }
 
-    @PacketLogger(id=33, hex=0x21)
+    @PacketLogger(id=33, hex=0x21, hot=true, fields=PacketFields.EID | PacketFields.ENTITY | PacketFields.DXYZ
+            | PacketFields.YAWPITCH)
     public void logPacketRelEntityMoveLook(StringBuilder line, PacketDirection dir, Packet33RelEntityMoveLook packet) {
-        logExistingEntity(line, packet.entityId);
-        line.append(" relmove=");
-        logRelativeMove(line, packet.xPosition, packet.yPosition, packet.zPosition);
-        line.append(" yawpitch=");
-        logAngleByte(line, packet.yaw, packet.pitch);
+        long fields = selectedFields(packet);
+        int start = line.length();
+        logEntity(line, packet.entityId, fields);
+        if ((fields & PacketFields.DXYZ) != 0) {
+            logField(line, start, "relmove=");
+            logRelativeMove(line, packet.xPosition, packet.yPosition, packet.zPosition);
+        }
+        if ((fields & PacketFields.YAWPITCH) != 0) {
+            logField(line, start, "yawpitch=");
+            logAngleByte(line, packet.yaw, packet.pitch);
+        }
     }
 
-    @PacketLogger(id=34, hex=0x22)
+    @PacketLogger(id=34, hex=0x22, hot=true, fields=PacketFields.EID | PacketFields.ENTITY | PacketFields.XYZ
+            | PacketFields.REGION | PacketFields.CHUNK | PacketFields.YAWPITCH)
     public void logPacketEntityTeleport(StringBuilder line, PacketDirection dir, Packet34EntityTeleport packet) {
-        logExistingEntity(line, packet.entityId);
-        line.append(" teleport=");
-        logCoordsAbsoluteIntegerXYZ(line, packet.xPosition, packet.yPosition, packet.zPosition);
-        line.append(" yawpitch=");
-        logAngleByte(line, packet.yaw, packet.pitch);
+        long fields = selectedFields(packet);
+        int start = line.length();
+        logEntity(line, packet.entityId, fields);
+        if ((fields & PacketFields.XYZ) != 0) {
+            logField(line, start, "teleport=");
+            logCoordsAbsoluteIntegerXYZ(line, packet.xPosition, packet.yPosition, packet.zPosition, fields);
+        }
+        if ((fields & PacketFields.YAWPITCH) != 0) {
+            logField(line, start, "yawpitch=");
+            logAngleByte(line, packet.yaw, packet.pitch);
+        }
     }
 
-    @PacketLogger(id=35, hex=0x23)
+    @PacketLogger(id=35, hex=0x23, hot=true, fields=PacketFields.EID | PacketFields.ENTITY | PacketFields.HEADYAW)
     public void logPacketEntityHeadRotation(StringBuilder line, PacketDirection dir, Packet35EntityHeadRotation packet) {
-        logExistingEntity(line, packet.entityId);
-        line.append(" headyaw=");
-        logAngleByte(line, packet.headRotationYaw);
+        long fields = selectedFields(packet);
+        int start = line.length();
+        logEntity(line, packet.entityId, fields);
+        if ((fields & PacketFields.HEADYAW) != 0) {
+            logField(line, start, "headyaw=");
+            logAngleByte(line, packet.headRotationYaw);
+        }
     }
 
     @PacketLogger(id=38, hex=0x26)
@@ -433,11 +427,14 @@ public class PacketLoggers extends PacketLoggersBase {
         logExistingEntity(line, packet.vehicleEntityId);
     }
 
-    @PacketLogger(id=40, hex=0x28)
+    @PacketLogger(id=40, hex=0x28, hot=true, fields=PacketFields.EID | PacketFields.ENTITY | PacketFields.METADATA)
     public void logPacketEntityMetadata(StringBuilder line, PacketDirection dir, Packet40EntityMetadata packet) {
-        logExistingEntity(line, packet.entityId);
-        line.append(" metadata=");
-        logEntityMetadata(line, packet.getMetadata());
+        long fields = selectedFields(packet);
+        int start = line.length();
+        logEntity(line, packet.entityId, fields);
+        if ((fields & PacketFields.METADATA) != 0) {
+            logEntityMetadata(line, start, packet.entityId, packet.getMetadata(), false);
+        }
     }
 
     @PacketLogger(id=41, hex=0x29)
@@ -456,7 +453,8 @@ public class PacketLoggers extends PacketLoggersBase {
 
     @PacketLogger(id=43, hex=0x2B)
     public void logPacketExperience(StringBuilder line, PacketDirection dir, Packet43Experience packet) {
-        line.append("expbar=").append(String.format("%.3f", packet.experience));
+        line.append("expbar=");
+        NumberFormatter.appendFixed(line, packet.experience, 3);
         line.append(" level=").append(packet.experienceLevel);
         line.append(" total=").append(packet.experienceTotal);
     }
@@ -471,55 +469,68 @@ public class PacketLoggers extends PacketLoggersBase {
         // HACK: because tempLength is private
         line.append(" compressedsize=").append(packet.getPacketSize() - 17);
         line.append(" chunkdata=");
-        if (Controller.getOptions().summarizeBinaryData) {
+        if (Controller.getOptions().summarizeBinaryData(dir, packet.getPacketId())) {
             line.append(packet.func_73593_d().length).append(" bytes");
         } else {
             logByteArrayHexDump(line, packet.func_73593_d());
         }
     }
 
-    @PacketLogger(id=52, hex=0x34)
+    @PacketLogger(id=52, hex=0x34, hot=true, fields=PacketFields.XYZ | PacketFields.REGION | PacketFields.CHUNK
+            | PacketFields.BLOCKS)
     public void logPacketMultiBlockChange(StringBuilder line, PacketDirection dir, Packet52MultiBlockChange packet) {
-        logCoordsChunkXZ(line, packet.xPosition, packet.zPosition);
-        line.append(" numblocks=").append(packet.size);
-        line.append(" blocks=[");
-        // the following code is adapted from NetClientHandler
+        long fields = selectedFields(packet);
+        int start = line.length();
+        if ((fields & PacketFields.XYZ) != 0) {
+            logCoordsChunkXZ(line, packet.xPosition, packet.zPosition, fields);
+        }
+        logField(line, start, "numblocks=").append(packet.size);
+        if ((fields & PacketFields.BLOCKS) == 0) {
+            return;
+        }
+        logField(line, start, "blocks=[");
+        // the following code is adapted from NetClientHandler, reading the
+        // big-endian words straight out of the array
         int xBase = packet.xPosition << 4;
         int zBase = packet.zPosition << 4;
-        DataInputStream dataStream = new DataInputStream(new ByteArrayInputStream(packet.metadataArray));
-        try {
-            for (int k = 0; k < packet.size; k++) {
-                short wordPos = dataStream.readShort();
-                short wordBlock = dataStream.readShort();
-                int xOff = (wordPos >> 12) & 0xf;
-                int zOff = (wordPos >> 8) & 0xf;
-                int yAbs = wordPos & 0xff;
-                int blockId = ((wordBlock & 0xfff) >> 4);
-                int blockMetadata = wordBlock & 0xf;
-                if (k > 0) {
-                    line.append(' ');
-                }
-                line.append('(').append(xBase + xOff);
-                line.append(',').append(yAbs);
-                line.append(',').append(zBase + zOff);
-                line.append("):");
-                line.append(blockId);
-                line.append('d');
-                line.append(blockMetadata);
+        byte[] data = packet.metadataArray;
+        int count = data == null ? 0 : Math.min(packet.size, data.length >> 2);
+        for (int k = 0, offset = 0; k < count; k++, offset += 4) {
+            int wordPos = ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+            int wordBlock = ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+            int xOff = (wordPos >> 12) & 0xf;
+            int zOff = (wordPos >> 8) & 0xf;
+            int yAbs = wordPos & 0xff;
+            int blockId = ((wordBlock & 0xfff) >> 4);
+            int blockMetadata = wordBlock & 0xf;
+            if (k > 0) {
+                line.append(' ');
             }
-        } catch (IOException e) {
-            // do nothing
+            line.append('(').append(xBase + xOff);
+            line.append(',').append(yAbs);
+            line.append(',').append(zBase + zOff);
+            line.append("):");
+            line.append(blockId);
+            line.append('d');
+            line.append(blockMetadata);
         }
         line.append(']');
     }
 
-    @PacketLogger(id=53, hex=0x35)
+    @PacketLogger(id=53, hex=0x35, hot=true, fields=PacketFields.XYZ | PacketFields.REGION | PacketFields.CHUNK
+            | PacketFields.BLOCK)
     public void logPacketBlockChange(StringBuilder line, PacketDirection dir, Packet53BlockChange packet) {
-        logCoordsBlockXYZ(line, packet.xPosition, packet.yPosition, packet.zPosition);
-        line.append(" block=");
-        line.append(packet.type);
-        line.append('d');
-        line.append(packet.metadata);
+        long fields = selectedFields(packet);
+        int start = line.length();
+        if ((fields & PacketFields.XYZ) != 0) {
+            logCoordsBlockXYZ(line, packet.xPosition, packet.yPosition, packet.zPosition, fields);
+        }
+        if ((fields & PacketFields.BLOCK) != 0) {
+            logField(line, start, "block=");
+            line.append(packet.type);
+            line.append('d');
+            line.append(packet.metadata);
+        }
     }
 
     @PacketLogger(id=54, hex=0x36)
@@ -555,7 +566,7 @@ public class PacketLoggers extends PacketLoggersBase {
             line.append(" sections=0x").append(Integer.toHexString(packet.field_73590_a[i]));
             line.append(" addsections=0x").append(Integer.toHexString(packet.field_73588_b[i]));
             line.append(" chunkdata=");
-            if (Controller.getOptions().summarizeBinaryData) {
+            if (Controller.getOptions().summarizeBinaryData(dir, packet.getPacketId())) {
                 line.append(packet.func_73583_c(i).length).append(" bytes");
             } else {
                 logByteArrayHexDump(line, packet.func_73583_c(i));
@@ -568,13 +579,16 @@ public class PacketLoggers extends PacketLoggersBase {
     @PacketLogger(id=60, hex=0x3C)
     public void logPacketExplosion(StringBuilder line, PacketDirection dir, Packet60Explosion packet) {
         logCoordsBlockXYZ(line, (int) packet.explosionX, (int) packet.explosionY, (int) packet.explosionZ);
-        line.append(" radius=").append(String.format("%.1f", packet.explosionSize));
+        line.append(" radius=");
+        NumberFormatter.appendFixed(line, packet.explosionSize, 1);
         line.append(" destroyed=[");
-        for (int i = 0; i < packet.chunkPositionRecords.size(); i++) {
+        List<?> records = packet.chunkPositionRecords;
+        int size = records.size();
+        for (int i = 0; i < size; i++) {
             if (i > 0) {
                 line.append(", ");
             }
-            ChunkPosition pos = (ChunkPosition) packet.chunkPositionRecords.get(i);
+            ChunkPosition pos = (ChunkPosition) records.get(i);
             line.append('(').append(pos.x);
             line.append(',').append(pos.y);
             line.append(',').append(pos.z);
@@ -601,8 +615,12 @@ public class PacketLoggers extends PacketLoggersBase {
                 (int) packet.getEffectY(),
                 (int) packet.getEffectZ());
         line.append(" soundname=").append(packet.getSoundName());
-        line.append(" volume=").append(String.format("%.1f", packet.getVolume()*100)).append('%');
-        line.append(" pitch=").append(String.format("%.1f", packet.getPitch()*100)).append('%');
+        line.append(" volume=");
+        NumberFormatter.appendFixed(line, packet.getVolume()*100, 1);
+        line.append('%');
+        line.append(" pitch=");
+        NumberFormatter.appendFixed(line, packet.getPitch()*100, 1);
+        line.append('%');
     }
 
     @PacketLogger(id=70, hex=0x46)
@@ -635,29 +653,55 @@ public class PacketLoggers extends PacketLoggersBase {
         line.append("windowid=").append(packet.windowId);
     }
 
-    @PacketLogger(id=102, hex=0x66)
+    @PacketLogger(id=102, hex=0x66, fields=PacketFields.ITEM)
     public void logPacketWindowClick(StringBuilder line, PacketDirection dir, Packet102WindowClick packet) {
         line.append("windowid=").append(packet.window_Id);
         line.append(" slot=").append(packet.inventorySlot);
         line.append(" rightclick=").append(packet.mouseClick);
         line.append(" actionid=").append(packet.action);
         line.append(" shift=").append(packet.holdingShift);
-        line.append(" clickeditem=");
-        logItemStack(line, packet.itemStack);
+        if ((selectedFields(packet) & PacketFields.ITEM) != 0) {
+            line.append(" clickeditem=");
+            logItemStack(line, packet.itemStack);
+        }
     }
 
-    @PacketLogger(id=103, hex=0x67)
+    @PacketLogger(id=103, hex=0x67, fields=PacketFields.ITEM)
     public void logPacketSetSlot(StringBuilder line, PacketDirection dir, Packet103SetSlot packet) {
         line.append("windowid=").append(packet.windowId);
         line.append(" slot=").append(packet.itemSlot);
-        line.append(" setitem=");
-        logItemStack(line, packet.myItemStack);
+        if ((selectedFields(packet) & PacketFields.ITEM) != 0) {
+            line.append(" setitem=");
+            logItemStack(line, packet.myItemStack);
+        }
     }
 
-    @PacketLogger(id=104, hex=0x68)
+    @PacketLogger(id=104, hex=0x68, fields=PacketFields.ITEM)
     public void logPacketWindowItems(StringBuilder line, PacketDirection dir, Packet104WindowItems packet) {
         line.append("windowid=").append(packet.windowId);
         line.append(" numwindowitems=").append(packet.itemStack.length);
+        if ((selectedFields(packet) & PacketFields.ITEM) == 0) {
+            return;
+        }
+        DeltaState delta = LineBuffer.getDeltaState(line);
+        if (delta != null) {
+            synchronized (delta) {
+                int numChanged = delta.diffWindow(packet.windowId, packet.itemStack);
+                if (numChanged != DeltaState.KEYFRAME) {
+                    line.append(" changedwindowitems=[");
+                    int[] changed = delta.getChanged();
+                    for (int i = 0; i < numChanged; i++) {
+                        if (i > 0) {
+                            line.append(", ");
+                        }
+                        line.append(changed[i]).append('=');
+                        logItemStack(line, packet.itemStack[changed[i]]);
+                    }
+                    line.append(']');
+                    return;
+                }
+            }
+        }
         line.append(" windowitems=[");
         for (int i = 0; i < packet.itemStack.length; i++) {
             if (i > 0) {
@@ -710,7 +754,7 @@ public class PacketLoggers extends PacketLoggersBase {
         logItemType(line, packet.itemID);
         line.append(" uniqueid=").append(packet.uniqueID); // stored as item damage
         line.append(" data=");
-        if (Controller.getOptions().summarizeBinaryData) {
+        if (Controller.getOptions().summarizeBinaryData(dir, packet.getPacketId())) {
             line.append(packet.itemData.length).append(" bytes");
         } else {
             logByteArrayHexDump(line, packet.itemData);
@@ -735,12 +779,20 @@ public class PacketLoggers extends PacketLoggersBase {
         line.append(" amount=").append(packet.amount);
     }
 
-    @PacketLogger(id=201, hex=0xC9)
+    @PacketLogger(id=201, hex=0xC9, hot=true, fields=PacketFields.USERNAME | PacketFields.ONLINE | PacketFields.PING)
     public void logPacketPlayerInfo(StringBuilder line, PacketDirection dir, Packet201PlayerInfo packet) {
-        line.append("username=");
-        logString(line, packet.playerName);
-        line.append(" online=").append(packet.isConnected);
-        line.append(" ping=").append(packet.ping);
+        long fields = selectedFields(packet);
+        int start = line.length();
+        if ((fields & PacketFields.USERNAME) != 0) {
+            logField(line, start, "username=");
+            logString(line, packet.playerName);
+        }
+        if ((fields & PacketFields.ONLINE) != 0) {
+            logField(line, start, "online=").append(packet.isConnected);
+        }
+        if ((fields & PacketFields.PING) != 0) {
+            logField(line, start, "ping=").append(packet.ping);
+        }
     }
 
     @PacketLogger(id=202, hex=0xCA)
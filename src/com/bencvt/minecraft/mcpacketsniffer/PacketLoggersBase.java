@@ -1,7 +1,13 @@
 package com.bencvt.minecraft.mcpacketsniffer;
 
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
 import net.minecraft.client.Minecraft;
@@ -24,6 +30,34 @@ import net.minecraft.src.WorldType;
  * Various helper methods for converting stuff to strings.
  */
 public abstract class PacketLoggersBase {
+    /**
+     * Name caches, indexed by item id/entity type. Racy by design: the worst
+     * case is resolving a name twice.
+     */
+    private static final String[] itemNames = new String[Item.itemsList.length];
+    private static final String[] entityTypeNames = new String[256];
+    private static final ConcurrentHashMap<Class<?>, String> entityClassNames = new ConcurrentHashMap<Class<?>, String>();
+
+    private static final ThreadLocal<TimestampEncoder> timestampEncoder = new ThreadLocal<TimestampEncoder>() {
+        @Override
+        protected TimestampEncoder initialValue() {
+            return new TimestampEncoder();
+        }
+    };
+
+    /** Set on threads that must not look entities up in the world. */
+    private static final ThreadLocal<Boolean> worldLookupsDisabled = new ThreadLocal<Boolean>();
+
+    /**
+     * Stop {@link #logExistingEntity} from looking up entities on the calling
+     * thread, e.g. the async capture writer: the world isn't thread-safe, and
+     * by the time a queued packet is rendered the entity may be somewhere
+     * else entirely.
+     */
+    public static void disableWorldLookups() {
+        worldLookupsDisabled.set(Boolean.TRUE);
+    }
+
     /**
      * Get the packet's self-reported payload size. This is known to be inaccurate for some packets,
      * e.g. Packet202PlayerAbilities and anything with metadata.
@@ -36,11 +70,13 @@ public abstract class PacketLoggersBase {
      * Output a timestamp, e.g., "2012-05-18 13:39:48.980"
      */
     public static void logTimestamp(StringBuilder line, long timestamp) {
-        String ts = new java.sql.Timestamp(timestamp).toString();
-        line.append(ts);
-        for (int pad = ts.length(); pad < 23; pad++) {
-            line.append('0');
-        }
+        timestampEncoder.get().append(line, timestamp);
+    }
+    /**
+     * Output a timestamp with microseconds, e.g., "2012-05-18 13:39:48.980123"
+     */
+    public static void logTimestampMicros(StringBuilder line, long micros) {
+        timestampEncoder.get().appendMicros(line, micros);
     }
     public static String timestampToString(long timestamp) {
         StringBuilder b = new StringBuilder();
@@ -75,64 +111,157 @@ public abstract class PacketLoggersBase {
     // String escaping
     //
 
+    /**
+     * Replacement for each ASCII char that needs escaping, or null if the char
+     * can be logged as-is.
+     */
+    private static final String[] ASCII_ESCAPES = new String[128];
+    static {
+        for (int ch = 0; ch < 0x20; ch++) {
+            StringBuilder b = new StringBuilder("\\u");
+            NumberFormatter.appendHex(b, ch, 4);
+            ASCII_ESCAPES[ch] = b.toString();
+        }
+        ASCII_ESCAPES['\n'] = "\\n";
+        ASCII_ESCAPES['\r'] = "\\r";
+        ASCII_ESCAPES['\t'] = "\\t";
+        ASCII_ESCAPES['\f'] = "\\f";
+        ASCII_ESCAPES['\b'] = "\\b";
+        ASCII_ESCAPES['"'] = "\\\"";
+        ASCII_ESCAPES['\\'] = "\\\\";
+    }
+
+    /** Reusable per-thread state for decoding byte arrays with the platform charset. */
+    private static class ByteArrayDecoder {
+        final CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(256);
+    }
+    private static final ThreadLocal<ByteArrayDecoder> byteArrayDecoder = new ThreadLocal<ByteArrayDecoder>() {
+        @Override
+        protected ByteArrayDecoder initialValue() {
+            return new ByteArrayDecoder();
+        }
+    };
+
     public static void logString(StringBuilder line, String s) {
         line.append('"');
-        for (int i = 0; i < s.length(); i++) {
-            // unprintable or unicode
+        logEscaped(line, s, Controller.getOptions().colorEscape);
+        line.append('"');
+    }
+
+    /**
+     * Append s, escaping unprintable and non-ASCII chars. Runs of chars that
+     * don't need escaping are copied in bulk.
+     */
+    private static void logEscaped(StringBuilder line, CharSequence s, String colorEscape) {
+        int length = s.length();
+        int runStart = 0;
+        for (int i = 0; i < length; i++) {
             char ch = s.charAt(i);
-            if (ch > 0x7f || ch < 0x20) {
-                if (ch == '\u00A7' && !Controller.getOptions().colorEscape.isEmpty()) {
-                    line.append(Controller.getOptions().colorEscape);
-                } else if (ch == '\n') {
-                    line.append("\\n");
-                } else if (ch == '\r') {
-                    line.append("\\r");
-                } else if (ch == '\t') {
-                    line.append("\\t");
-                } else if (ch == '\f') {
-                    line.append("\\f");
-                } else if (ch == '\b') {
-                    line.append("\\b");
-                } else {
-                    line.append(String.format("\\u%04X", (int) ch));
+            String escape;
+            if (ch < 0x80) {
+                escape = ASCII_ESCAPES[ch];
+                if (escape == null) {
+                    continue;
                 }
-            } else if (ch == '"') {
-                line.append("\\\"");
-            } else if (ch == '\\') {
-                line.append("\\\\");
+            } else if (ch == '\u00A7' && !colorEscape.isEmpty()) {
+                escape = colorEscape;
             } else {
-                line.append(ch);
+                escape = null;
             }
+            if (runStart < i) {
+                line.append(s, runStart, i);
+            }
+            if (escape == null) {
+                // unicode
+                line.append("\\u");
+                NumberFormatter.appendHex(line, ch, 4);
+            } else {
+                line.append(escape);
+            }
+            runStart = i + 1;
+        }
+        if (runStart == 0 && s instanceof String) {
+            // nothing needed escaping
+            line.append((String) s);
+        } else if (runStart < length) {
+            line.append(s, runStart, length);
         }
-        line.append('"');
     }
 
     //
     // Raw data
     //
 
+    /**
+     * Same as logString(line, new String(data)), but without the String.
+     */
     public static void logByteArrayAsString(StringBuilder line, byte[] data) {
-        logString(line, new String(data));
+        line.append('"');
+        int i = 0;
+        while (i < data.length && data[i] >= 0) {
+            i++;
+        }
+        if (i == data.length) {
+            // pure ASCII, which reads the same in any platform charset worth mentioning
+            int runStart = 0;
+            for (i = 0; i < data.length; i++) {
+                String escape = ASCII_ESCAPES[data[i]];
+                if (escape != null) {
+                    for (int j = runStart; j < i; j++) {
+                        line.append((char) data[j]);
+                    }
+                    line.append(escape);
+                    runStart = i + 1;
+                }
+            }
+            for (int j = runStart; j < data.length; j++) {
+                line.append((char) data[j]);
+            }
+        } else {
+            ByteArrayDecoder d = byteArrayDecoder.get();
+            int maxChars = (int) (data.length * (double) d.decoder.maxCharsPerByte()) + 1;
+            if (d.chars.capacity() < maxChars) {
+                d.chars = CharBuffer.allocate(maxChars);
+            }
+            CharBuffer chars = d.chars;
+            chars.clear();
+            d.decoder.reset();
+            ByteBuffer bytes = ByteBuffer.wrap(data);
+            d.decoder.decode(bytes, chars, true);
+            d.decoder.flush(chars);
+            chars.flip();
+            logEscaped(line, chars, Controller.getOptions().colorEscape);
+        }
+        line.append('"');
     }
 
-    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    /**
+     * Output the data as "[0A 1B 2C ...]". Large arrays are streamed straight
+     * to the log file in chunks by {@link LineBuffer} rather than tripling
+     * their size in the line.
+     */
     public static void logByteArrayHexDump(StringBuilder line, byte[] data) {
+        if (LineBuffer.deferHexDump(line, data)) {
+            return;
+        }
+        line.ensureCapacity(line.length() + data.length * 3 + 2);
         line.append('[');
         for (int i = 0; i < data.length; i++) {
             if (i > 0) {
                 line.append(' ');
             }
-            line.append(HEX[(data[i] & 0xf0) >> 4]);
-            line.append(HEX[data[i] & 0x0f]);
+            int pair = (data[i] & 0xFF) << 1;
+            line.append((char) NumberFormatter.HEX_PAIRS[pair]);
+            line.append((char) NumberFormatter.HEX_PAIRS[pair + 1]);
         }
         line.append(']');
     }
 
     public static void logNBTTagCompound(StringBuilder line, NBTTagCompound tag) {
-        // TODO print the contents!
-        line.append("NBTTagCompound(");
-        line.append(tag.toString());
-        line.append(')');
+        NBTLogger.get().log(line, tag);
     }
 
     //
@@ -146,13 +275,13 @@ public abstract class PacketLoggersBase {
      *   bX,bY,bZ are block coords
      *   Region and chunk coords may be omitted per preferences.
      */
-    private static void logCoordsWork(StringBuilder line, int blockX, int blockY, int blockZ) {
+    private static void logCoordsWork(StringBuilder line, int blockX, int blockY, int blockZ, long fields) {
         line.append('(');
-        if (Controller.getOptions().coordsIncludeRegion) {
+        if ((fields & PacketFields.REGION) != 0 && Controller.getOptions().coordsIncludeRegion) {
             line.append(blockX >> 9).append(',');
             line.append(blockZ >> 9).append(';');
         }
-        if (Controller.getOptions().coordsIncludeChunk) {
+        if ((fields & PacketFields.CHUNK) != 0 && Controller.getOptions().coordsIncludeChunk) {
             line.append(blockX >> 4).append(',');
             line.append(blockZ >> 4).append(';');
         }
@@ -161,20 +290,36 @@ public abstract class PacketLoggersBase {
         line.append(blockZ).append(')');
     }
     public static void logCoordsBlockXYZ(StringBuilder line, int blockX, int blockY, int blockZ) {
-        logCoordsWork(line, blockX, blockY, blockZ);
+        logCoordsWork(line, blockX, blockY, blockZ, PacketFields.ALL);
+    }
+    /**
+     * @param fields region and chunk coords are only included if selected
+     */
+    public static void logCoordsBlockXYZ(StringBuilder line, int blockX, int blockY, int blockZ, long fields) {
+        logCoordsWork(line, blockX, blockY, blockZ, fields);
     }
     public static void logCoordsAbsoluteIntegerXYZ(StringBuilder line, int absX, int absY, int absZ) {
         logCoordsBlockXYZ(line, absX / 32, absY / 32, absZ / 32);
     }
+    public static void logCoordsAbsoluteIntegerXYZ(StringBuilder line, int absX, int absY, int absZ, long fields) {
+        logCoordsWork(line, absX / 32, absY / 32, absZ / 32, fields);
+    }
     public static void logCoordsChunkXZ(StringBuilder line, int chunkX, int chunkZ) {
-        logCoordsWork(line, chunkX << 4, 0, chunkZ << 4);
+        logCoordsWork(line, chunkX << 4, 0, chunkZ << 4, PacketFields.ALL);
+    }
+    public static void logCoordsChunkXZ(StringBuilder line, int chunkX, int chunkZ, long fields) {
+        logCoordsWork(line, chunkX << 4, 0, chunkZ << 4, fields);
     }
 
     public static void logAngleFloat(StringBuilder line, float angle) {
-        line.append(String.format("%.1f", angle));
+        NumberFormatter.appendFixed(line, angle, 1);
     }
     public static void logAngleFloat(StringBuilder line, float yaw, float pitch) {
-        line.append(String.format("(%.1f,%.1f)", yaw, pitch));
+        line.append('(');
+        NumberFormatter.appendFixed(line, yaw, 1);
+        line.append(',');
+        NumberFormatter.appendFixed(line, pitch, 1);
+        line.append(')');
     }
     public static void logAngleByte(StringBuilder line, byte angle) {
         logAngleFloat(line,
@@ -188,7 +333,13 @@ public abstract class PacketLoggersBase {
 
 
     public static void logVelocityFloat(StringBuilder line, float motionX, float motionY, float motionZ) {
-        line.append(String.format("(%.3f,%.3f,%.3f)", motionX, motionY, motionZ));
+        line.append('(');
+        NumberFormatter.appendFixed(line, motionX, 3);
+        line.append(',');
+        NumberFormatter.appendFixed(line, motionY, 3);
+        line.append(',');
+        NumberFormatter.appendFixed(line, motionZ, 3);
+        line.append(')');
     }
 
     public static void logVelocityShort(StringBuilder line, int motionX, int motionY, int motionZ) {
@@ -197,9 +348,12 @@ public abstract class PacketLoggersBase {
 
     public static void logRelativeMove(StringBuilder line, byte absX, byte absY, byte absZ) {
         line.append('(');
-        line.append(String.format("%.3f", absX / 32.0)).append(',');
-        line.append(String.format("%.3f", absY / 32.0)).append(',');
-        line.append(String.format("%.3f", absZ / 32.0)).append(')');
+        NumberFormatter.appendFixed(line, absX / 32.0, 3);
+        line.append(',');
+        NumberFormatter.appendFixed(line, absY / 32.0, 3);
+        line.append(',');
+        NumberFormatter.appendFixed(line, absZ / 32.0, 3);
+        line.append(')');
     }
 
     //
@@ -229,15 +383,16 @@ public abstract class PacketLoggersBase {
             return;
         }
         line.append('(');
-        Item item = null;
-        if (itemId >= 0 && itemId < Item.itemsList.length) {
-            item = Item.itemsList[itemId];
-        }
-        if (item == null) {
-            line.append('?');
-        } else {
-            line.append(item.getItemName());
+        String name = null;
+        if (itemId >= 0 && itemId < itemNames.length) {
+            name = itemNames[itemId];
+            if (name == null && Item.itemsList[itemId] != null) {
+                // getItemName() builds a new string every time
+                name = Item.itemsList[itemId].getItemName();
+                itemNames[itemId] = name;
+            }
         }
+        line.append(name == null ? "?" : name);
         line.append(')');
     }
 
@@ -259,7 +414,16 @@ public abstract class PacketLoggersBase {
 
     public static void logEntityType(StringBuilder line, int entityType) {
         line.append(entityType).append('(');
-        String name = EntityList.getStringFromID(entityType);
+        String name = null;
+        if (entityType >= 0 && entityType < entityTypeNames.length) {
+            name = entityTypeNames[entityType];
+            if (name == null) {
+                name = EntityList.getStringFromID(entityType);
+                entityTypeNames[entityType] = name;
+            }
+        } else {
+            name = EntityList.getStringFromID(entityType);
+        }
         if (name == null) {
             line.append('?');
         } else {
@@ -272,22 +436,64 @@ public abstract class PacketLoggersBase {
             line.append("<null>");
             return;
         }
+        String cached = entityClassNames.get(entity.getClass());
+        if (cached != null) {
+            line.append(cached);
+            return;
+        }
         String name = EntityList.getEntityString(entity);
-        if (name == null && entity instanceof EntityOtherPlayerMP) {
+        if (name != null) {
+            // e.g. "50(Creeper)"
+            cached = EntityList.getEntityID(entity) + "(" + name + ")";
+            entityClassNames.put(entity.getClass(), cached);
+            line.append(cached);
+        } else if (entity instanceof EntityOtherPlayerMP) {
             line.append("<other player>(").append(((EntityOtherPlayerMP) entity).username).append(')');
-        } else if (name == null && entity instanceof EntityPlayer) {
+        } else if (entity instanceof EntityPlayer) {
             line.append("<player>(").append(((EntityPlayer) entity).username).append(')');
-        } else if (name == null) {
-            line.append("<unlisted>(?)");
         } else {
-            line.append(EntityList.getEntityID(entity)).append('(').append(name).append(')');
+            line.append("<unlisted>(?)");
+        }
+    }
+
+    /**
+     * @return the {@link PacketFields} selected for this packet type by the
+     *         packet-fields option
+     */
+    public static long selectedFields(Packet packet) {
+        return Controller.getOptions().getPacketFields(packet.getPacketId());
+    }
+
+    /**
+     * Start a field, e.g. "relmove=", separated from whatever the packet
+     * logger has written so far. With a projection, earlier fields may have
+     * been skipped, so the first field written gets no separator.
+     * @param start the line's length before the packet logger wrote anything
+     */
+    public static StringBuilder logField(StringBuilder line, int start, String name) {
+        if (line.length() > start) {
+            line.append(' ');
+        }
+        return line.append(name);
+    }
+
+    /**
+     * Log the entity, looking it up only if the entity field is selected.
+     */
+    public static void logEntity(StringBuilder line, int entityId, long fields) {
+        if ((fields & PacketFields.ENTITY) != 0) {
+            logExistingEntity(line, entityId);
+        } else if ((fields & PacketFields.EID) != 0) {
+            line.append("{eid=").append(entityId).append('}');
         }
     }
 
     public static void logExistingEntity(StringBuilder line, int entityId) {
         Entity entity = null;
-        if (Minecraft.getMinecraft().theWorld != null) {
-            entity = Minecraft.getMinecraft().theWorld.getEntityByID(entityId);
+        // the Minecraft instance is absent when converting a capture offline
+        Minecraft mc = Minecraft.getMinecraft();
+        if (mc != null && mc.theWorld != null && worldLookupsDisabled.get() == null) {
+            entity = mc.theWorld.getEntityByID(entityId);
         }
         line.append("{eid=").append(entityId);
         if (entity == null) {
@@ -303,41 +509,114 @@ public abstract class PacketLoggersBase {
         line.append('}');
     }
 
+    /**
+     * Log " metadata=[...]", or just the values that changed since the last
+     * metadata logged for the entity if delta rendering is enabled.
+     * @param spawn true if the metadata is from a spawn packet, which is
+     *              always logged in full
+     */
+    public static void logEntityMetadata(StringBuilder line, int entityId, List<WatchableObject> metadata, boolean spawn) {
+        logEntityMetadata(line, -1, entityId, metadata, spawn);
+    }
+
+    /**
+     * @param start see {@link #logField}
+     */
+    public static void logEntityMetadata(StringBuilder line, int start, int entityId, List<WatchableObject> metadata,
+            boolean spawn) {
+        DeltaState delta = LineBuffer.getDeltaState(line);
+        if (delta != null) {
+            synchronized (delta) {
+                int numChanged = delta.diffMetadata(entityId, metadata, spawn);
+                if (numChanged != DeltaState.KEYFRAME) {
+                    logField(line, start, "changedmetadata=[");
+                    int[] changed = delta.getChanged();
+                    for (int i = 0; i < numChanged; i++) {
+                        if (i > 0) {
+                            line.append(", ");
+                        }
+                        logWatchableObject(line, metadata.get(changed[i]));
+                    }
+                    line.append(']');
+                    return;
+                }
+            }
+        }
+        logField(line, start, "metadata=");
+        logEntityMetadata(line, metadata);
+    }
+
     /**
      * @see http://mc.kev009.com/Entities
      */
     public static void logEntityMetadata(StringBuilder line, List<WatchableObject> metadata) {
         line.append('[');
-        for (int i = 0; i < metadata.size(); i++) {
+        int size = metadata.size();
+        for (int i = 0; i < size; i++) {
             if (i > 0) {
                 line.append(", ");
             }
-            WatchableObject w = metadata.get(i);
-            switch (w.getDataValueId()) {
-            case 0:
-                line.append("flags=");
-                line.append(w.getObject());
-                break;
-            case 1:
-                line.append("drown=");
-                line.append(w.getObject());
-                break;
-            case 8:
-                line.append("potion=");
-                line.append(w.getObject());
-                break;
-            case 12:
-                line.append("animal=");
-                line.append(w.getObject());
-                break;
-            default:
-                line.append(w.getDataValueId());
-                line.append('<');
-                CodeTable.entityMetadataType.log(line, w.getObjectType(), false);
-                line.append(">=");
-                logString(line, w.getObject().toString());
-            }
+            logWatchableObject(line, metadata.get(i));
         }
         line.append(']');
     }
+
+    private static void logWatchableObject(StringBuilder line, WatchableObject w) {
+        switch (w.getDataValueId()) {
+        case 0:
+            line.append("flags=");
+            logWatchableNumber(line, w.getObject());
+            break;
+        case 1:
+            line.append("drown=");
+            logWatchableNumber(line, w.getObject());
+            break;
+        case 8:
+            line.append("potion=");
+            logWatchableNumber(line, w.getObject());
+            break;
+        case 12:
+            line.append("animal=");
+            logWatchableNumber(line, w.getObject());
+            break;
+        default:
+            line.append(w.getDataValueId());
+            line.append('<');
+            CodeTable.entityMetadataType.log(line, w.getObjectType(), false);
+            line.append(">=");
+            logWatchableValue(line, w.getObject());
+        }
+    }
+
+    /**
+     * Append a metadata value by its actual type rather than through
+     * toString(), which would create a String for every number.
+     */
+    private static void logWatchableNumber(StringBuilder line, Object value) {
+        if (value instanceof Byte) {
+            line.append(((Byte) value).byteValue());
+        } else if (value instanceof Short) {
+            line.append(((Short) value).shortValue());
+        } else if (value instanceof Integer) {
+            line.append(((Integer) value).intValue());
+        } else if (value instanceof Float) {
+            line.append(((Float) value).floatValue());
+        } else {
+            line.append(value);
+        }
+    }
+
+    private static void logWatchableValue(StringBuilder line, Object value) {
+        if (value instanceof Number) {
+            // digits never need escaping
+            line.append('"');
+            logWatchableNumber(line, value);
+            line.append('"');
+        } else if (value instanceof String) {
+            logString(line, (String) value);
+        } else {
+            // e.g. ItemStack, ChunkCoordinates: same format as always
+            logString(line, String.valueOf(value));
+        }
+    }
 }
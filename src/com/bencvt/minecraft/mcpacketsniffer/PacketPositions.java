@@ -0,0 +1,235 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import net.minecraft.src.*;
+
+/**
+ * Table of per-packet-type functions that pull out the block coordinates a
+ * packet refers to, for filtering by area without rendering anything.
+ * <p>
+ * Chunk packets refer to a whole column of blocks rather than a single one;
+ * for those the coordinates are the column's lowest x and z, and y is 0.
+ */
+public abstract class PacketPositions {
+    /** The packet doesn't refer to a position. */
+    public static final int NONE = 0;
+    /** The packet refers to a single block. */
+    public static final int BLOCK = 1;
+    /** The packet refers to a 16x16 column of blocks. */
+    public static final int COLUMN = 2;
+
+    public interface Extractor {
+        /**
+         * Store the packet's block coordinates in xyz.
+         * @return NONE, BLOCK, or COLUMN
+         */
+        public int extract(PacketDirection dir, Packet packet, int[] xyz);
+    }
+
+    private static final Extractor[] extractors = new Extractor[256];
+
+    static {
+        extractors[0x06] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet6SpawnPosition p = (Packet6SpawnPosition) packet;
+                return block(xyz, p.xPosition, p.yPosition, p.zPosition);
+            }
+        };
+        extractors[0x0B] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet11PlayerPosition p = (Packet11PlayerPosition) packet;
+                return block(xyz, (int) p.xPosition, (int) p.yPosition, (int) p.zPosition);
+            }
+        };
+        extractors[0x0D] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet13PlayerLookMove p = (Packet13PlayerLookMove) packet;
+                // y and stance are swapped for S2C
+                double y = dir == PacketDirection.S2C ? p.stance : p.yPosition;
+                return block(xyz, (int) p.xPosition, (int) y, (int) p.zPosition);
+            }
+        };
+        extractors[0x0E] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet14BlockDig p = (Packet14BlockDig) packet;
+                return block(xyz, p.xPosition, p.yPosition, p.zPosition);
+            }
+        };
+        extractors[0x0F] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet15Place p = (Packet15Place) packet;
+                return block(xyz, p.getXPosition(), p.getYPosition(), p.getZPosition());
+            }
+        };
+        extractors[0x11] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet17Sleep p = (Packet17Sleep) packet;
+                return block(xyz, p.bedX, p.bedY, p.bedZ);
+            }
+        };
+        extractors[0x14] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet20NamedEntitySpawn p = (Packet20NamedEntitySpawn) packet;
+                return absolute(xyz, p.xPosition, p.yPosition, p.zPosition);
+            }
+        };
+        extractors[0x15] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet21PickupSpawn p = (Packet21PickupSpawn) packet;
+                return absolute(xyz, p.xPosition, p.yPosition, p.zPosition);
+            }
+        };
+        extractors[0x17] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet23VehicleSpawn p = (Packet23VehicleSpawn) packet;
+                return absolute(xyz, p.xPosition, p.yPosition, p.zPosition);
+            }
+        };
+        extractors[0x18] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet24MobSpawn p = (Packet24MobSpawn) packet;
+                return absolute(xyz, p.xPosition, p.yPosition, p.zPosition);
+            }
+        };
+        extractors[0x19] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet25EntityPainting p = (Packet25EntityPainting) packet;
+                return block(xyz, p.xPosition, p.yPosition, p.zPosition);
+            }
+        };
+        extractors[0x1A] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet26EntityExpOrb p = (Packet26EntityExpOrb) packet;
+                return absolute(xyz, p.posX, p.posY, p.posZ);
+            }
+        };
+        extractors[0x22] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet34EntityTeleport p = (Packet34EntityTeleport) packet;
+                return absolute(xyz, p.xPosition, p.yPosition, p.zPosition);
+            }
+        };
+        extractors[0x33] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet51MapChunk p = (Packet51MapChunk) packet;
+                return column(xyz, p.xCh, p.zCh);
+            }
+        };
+        extractors[0x34] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet52MultiBlockChange p = (Packet52MultiBlockChange) packet;
+                return column(xyz, p.xPosition, p.zPosition);
+            }
+        };
+        extractors[0x35] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet53BlockChange p = (Packet53BlockChange) packet;
+                return block(xyz, p.xPosition, p.yPosition, p.zPosition);
+            }
+        };
+        extractors[0x36] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet54PlayNoteBlock p = (Packet54PlayNoteBlock) packet;
+                return block(xyz, p.xLocation, p.yLocation, p.zLocation);
+            }
+        };
+        extractors[0x37] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet55BlockDestroy p = (Packet55BlockDestroy) packet;
+                return block(xyz, p.getPosX(), p.getPosY(), p.getPosZ());
+            }
+        };
+        extractors[0x3C] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet60Explosion p = (Packet60Explosion) packet;
+                return block(xyz, (int) p.explosionX, (int) p.explosionY, (int) p.explosionZ);
+            }
+        };
+        extractors[0x3D] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet61DoorChange p = (Packet61DoorChange) packet;
+                return block(xyz, p.posX, p.posY, p.posZ);
+            }
+        };
+        extractors[0x3E] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet62LevelSound p = (Packet62LevelSound) packet;
+                return block(xyz, (int) p.getEffectX(), (int) p.getEffectY(), (int) p.getEffectZ());
+            }
+        };
+        extractors[0x47] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet71Weather p = (Packet71Weather) packet;
+                return absolute(xyz, p.posX, p.posY, p.posZ);
+            }
+        };
+        extractors[0x82] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet130UpdateSign p = (Packet130UpdateSign) packet;
+                return block(xyz, p.xPosition, p.yPosition, p.zPosition);
+            }
+        };
+        extractors[0x84] = new Extractor() {
+            @Override
+            public int extract(PacketDirection dir, Packet packet, int[] xyz) {
+                Packet132TileEntityData p = (Packet132TileEntityData) packet;
+                return block(xyz, p.xPosition, p.yPosition, p.zPosition);
+            }
+        };
+    }
+
+    private static int block(int[] xyz, int x, int y, int z) {
+        xyz[0] = x;
+        xyz[1] = y;
+        xyz[2] = z;
+        return BLOCK;
+    }
+
+    /** Absolute integer coordinates are in 1/32 block units. */
+    private static int absolute(int[] xyz, int absX, int absY, int absZ) {
+        return block(xyz, absX / 32, absY / 32, absZ / 32);
+    }
+
+    private static int column(int[] xyz, int chunkX, int chunkZ) {
+        xyz[0] = chunkX << 4;
+        xyz[1] = 0;
+        xyz[2] = chunkZ << 4;
+        return COLUMN;
+    }
+
+    /** @return true if packets of this type refer to a position */
+    public static boolean hasPosition(int packetId) {
+        return extractors[packetId & 0xFF] != null;
+    }
+
+    /**
+     * @param xyz must have room for 3 elements
+     * @see Extractor#extract
+     */
+    public static int extract(PacketDirection dir, Packet packet, int[] xyz) {
+        Extractor extractor = extractors[packet.getPacketId() & 0xFF];
+        return extractor == null ? NONE : extractor.extract(dir, packet, xyz);
+    }
+}
@@ -0,0 +1,77 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+/**
+ * Decides which packets of a high-volume type actually get logged, per the
+ * packet-sampling (log 1 in N) and packet-rate-limit (at most N lines per
+ * second, as a token bucket) options. Stats are unaffected: ConnectionLog
+ * records every packet before asking.
+ * <p>
+ * Each logged packet stands in for the ones skipped since the last logged
+ * packet of the same type, which is its weight.
+ * <p>
+ * Counters and buckets are kept per thread so deciding never needs a lock.
+ * Each direction has its own network thread, so in practice the rates apply
+ * to each direction separately.
+ */
+public class PacketSampler {
+    private static final ThreadLocal<PacketSampler> perThread = new ThreadLocal<PacketSampler>() {
+        @Override
+        protected PacketSampler initialValue() {
+            return new PacketSampler();
+        }
+    };
+
+    /** Bucket levels are in thousandths of a line so refills stay exact. */
+    private static final long TOKEN = 1000L;
+
+    /** Packets seen since the last one sampled. */
+    private final int[] counters = new int[256];
+    /** Packets not logged since the last one logged. */
+    private final int[] skipped = new int[256];
+    private final long[] tokens = new long[256];
+    private final long[] lastRefill = new long[256];
+
+    private PacketSampler() {
+        // use get()
+    }
+
+    public static PacketSampler get() {
+        return perThread.get();
+    }
+
+    /**
+     * @param interval log 1 in this many packets, 1 for all of them
+     * @param rateLimit maximum lines per second, 0 for unlimited
+     * @param timestamp now, in milliseconds
+     * @return 0 if the packet shouldn't be logged, otherwise its weight: the
+     *         number of packets the logged line represents
+     */
+    public int sample(int packetId, int interval, int rateLimit, long timestamp) {
+        int id = packetId & 0xFF;
+        if (interval > 1) {
+            if (++counters[id] < interval) {
+                skipped[id]++;
+                return 0;
+            }
+            counters[id] = 0;
+        }
+        if (rateLimit > 0) {
+            long capacity = rateLimit * TOKEN;
+            long elapsed = timestamp - lastRefill[id];
+            lastRefill[id] = timestamp;
+            if (elapsed > 0L) {
+                // refill elapsed milliseconds' worth, i.e. rateLimit/1000 lines per ms
+                long level = tokens[id] + Math.min(elapsed, 1000L) * rateLimit;
+                tokens[id] = Math.min(level, capacity);
+            }
+            if (tokens[id] < TOKEN) {
+                skipped[id]++;
+                return 0;
+            }
+            tokens[id] -= TOKEN;
+        }
+        int weight = skipped[id] + 1;
+        skipped[id] = 0;
+        return weight;
+    }
+}
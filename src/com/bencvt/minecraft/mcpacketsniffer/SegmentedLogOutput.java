@@ -0,0 +1,348 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+
+/**
+ * Splits a log into numbered segment files, e.g.
+ * "packets_mc.example.com.0003.txt", rotating on a record boundary once a
+ * segment reaches a byte size, age, or record count limit.
+ * <p>
+ * Each session (connection) also gets a small manifest,
+ * e.g. "packets_mc.example.com.txt.0003.manifest.txt", listing each of its
+ * segments with first/last timestamps, record count, and size, so tools can
+ * jump straight to the segment they need.
+ * <p>
+ * Opening (e.g. preallocating) the next segment ahead of time, closing the
+ * old one, and rewriting the manifest all happen on a background thread, so
+ * rotation doesn't hold up the writer. If the client crashes, the pre-opened
+ * next segment is left behind empty.
+ *
+ * @param <S> whatever the subclass needs to write to an open segment
+ */
+public abstract class SegmentedLogOutput<S> extends LogOutput {
+    private static final ExecutorService backgroundCloser = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, Controller.NAME + " segment closer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final File dir;
+    private final String prefix;
+    private final String extension;
+    private final long maxBytes;
+    private final long maxMillis;
+    private final long maxRecords;
+    private final File manifestFile;
+    private final StringBuilder manifest = new StringBuilder();
+    private int segmentNumber;
+    private File segmentFile;
+    private Future<S> nextSegment;
+    private long segmentBytes;
+    private long segmentRecords;
+    private long segmentFirstTimestamp;
+    private long segmentLastTimestamp;
+    private boolean closed;
+
+    /**
+     * @param dir
+     * @param prefix e.g. "packets_mc.example.com"
+     * @param extension e.g. ".txt"
+     * @param maxBytes rotate once a segment is at least this big, or 0
+     * @param maxMillis rotate once a segment spans at least this long, or 0
+     * @param maxRecords rotate once a segment has this many records, or 0
+     */
+    protected SegmentedLogOutput(File dir, String prefix, String extension,
+            long maxBytes, long maxMillis, long maxRecords) {
+        this.dir = dir;
+        this.prefix = prefix;
+        this.extension = extension;
+        this.maxBytes = maxBytes;
+        this.maxMillis = maxMillis;
+        this.maxRecords = maxRecords;
+        // never append to a segment from an earlier session
+        segmentNumber = 0;
+        while (segmentFileFor(segmentNumber).exists()) {
+            segmentNumber++;
+        }
+        // the extension keeps e.g. .txt and .mcpcap manifests apart
+        manifestFile = new File(dir, prefix + extension + "." + formatSegmentNumber(segmentNumber) + ".manifest.txt");
+        manifest.append("# segment\tfirst\tlast\trecords\tbytes\n");
+    }
+
+    /** Subclasses must call this at the end of their constructor. */
+    protected void startFirstSegment() throws IOException {
+        segmentFile = segmentFileFor(segmentNumber);
+        attachSegment(createSegment(segmentFile));
+        preopenNextSegment();
+    }
+
+    /**
+     * Create and open a new, empty segment file. Called on the background
+     * thread, so it must not touch the current segment.
+     */
+    protected abstract S createSegment(File file) throws IOException;
+
+    /** Start writing to a segment returned by {@link #createSegment}. */
+    protected abstract void attachSegment(S segment);
+
+    /** Close and delete a segment that was never attached. */
+    protected abstract void discardSegment(S segment, File file);
+
+    /**
+     * Detach from the current segment and return a task that finishes closing
+     * it. The task may run on a background thread.
+     */
+    protected abstract Runnable detachSegment() throws IOException;
+
+    protected abstract void writeToSegment(int b) throws IOException;
+
+    protected abstract void writeToSegment(byte[] b, int off, int len) throws IOException;
+
+    /** @return true if the segment should be rotated regardless of limits */
+    protected boolean isSegmentFull() {
+        return false;
+    }
+
+    public File getSegmentFile() {
+        return segmentFile;
+    }
+
+    private static String formatSegmentNumber(int n) {
+        return String.format("%04d", n);
+    }
+
+    private File segmentFileFor(int n) {
+        return new File(dir, prefix + "." + formatSegmentNumber(n) + extension);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        writeToSegment(b);
+        segmentBytes++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        writeToSegment(b, off, len);
+        segmentBytes += len;
+    }
+
+    @Override
+    public void endRecord(long timestamp) throws IOException {
+        if (segmentRecords == 0L) {
+            segmentFirstTimestamp = timestamp;
+        }
+        segmentLastTimestamp = timestamp;
+        segmentRecords++;
+        if (isSegmentFull() ||
+                (maxBytes > 0L && segmentBytes >= maxBytes) ||
+                (maxRecords > 0L && segmentRecords >= maxRecords) ||
+                (maxMillis > 0L && timestamp - segmentFirstTimestamp >= maxMillis)) {
+            rotate();
+        }
+    }
+
+    public void rotate() throws IOException {
+        backgroundCloser.submit(finishSegment());
+        segmentNumber++;
+        segmentFile = segmentFileFor(segmentNumber);
+        segmentBytes = 0L;
+        segmentRecords = 0L;
+        attachSegment(takeNextSegment());
+        preopenNextSegment();
+        if (segmentListener != null) {
+            segmentListener.onSegmentStart(this);
+        }
+    }
+
+    private void preopenNextSegment() {
+        final File file = segmentFileFor(segmentNumber + 1);
+        nextSegment = backgroundCloser.submit(new Callable<S>() {
+            @Override
+            public S call() throws IOException {
+                return createSegment(file);
+            }
+        });
+    }
+
+    /**
+     * @return the segment opened in the background, normally long since
+     *         ready, or a new one if that failed
+     */
+    private S takeNextSegment() throws IOException {
+        try {
+            return nextSegment.get();
+        } catch (Exception e) {
+            Controller.getEventLog().log(Level.WARNING, "unable to pre-open " + segmentFile + ", retrying", e);
+            return createSegment(segmentFile);
+        } finally {
+            nextSegment = null;
+        }
+    }
+
+    /**
+     * Add the current segment to the manifest and detach from it.
+     * @return a task that closes the segment and rewrites the manifest
+     */
+    private Runnable finishSegment() throws IOException {
+        manifest.append(segmentFile.getName()).append('\t');
+        if (segmentRecords > 0L) {
+            PacketLoggersBase.logTimestamp(manifest, segmentFirstTimestamp);
+            manifest.append('\t');
+            PacketLoggersBase.logTimestamp(manifest, segmentLastTimestamp);
+        } else {
+            manifest.append("-\t-");
+        }
+        manifest.append('\t').append(segmentRecords);
+        manifest.append('\t').append(segmentBytes).append('\n');
+        final Runnable closeTask = detachSegment();
+        final String manifestContents = manifest.toString();
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    closeTask.run();
+                } finally {
+                    writeManifest(manifestContents);
+                }
+            }
+        };
+    }
+
+    private void writeManifest(String contents) {
+        File tmpFile = new File(manifestFile.getPath() + ".tmp");
+        try {
+            PrintWriter writer = new PrintWriter(tmpFile, ConnectionLog.CHARSET);
+            writer.print(contents);
+            writer.close();
+            manifestFile.delete();
+            if (!tmpFile.renameTo(manifestFile)) {
+                throw new IOException("unable to rename " + tmpFile);
+            }
+        } catch (IOException e) {
+            Controller.getEventLog().log(Level.SEVERE, "unable to write segment manifest " + manifestFile, e);
+        }
+    }
+
+    /**
+     * Nothing to flush by default, subclasses that buffer override this.
+     */
+    @Override
+    public void flush() throws IOException {
+        // do nothing
+    }
+
+    /**
+     * Close the last segment and write the final manifest, waiting for any
+     * background work to finish.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (nextSegment != null) {
+            final Future<S> unused = nextSegment;
+            final File unusedFile = segmentFileFor(segmentNumber + 1);
+            nextSegment = null;
+            backgroundCloser.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        discardSegment(unused.get(), unusedFile);
+                    } catch (Exception e) {
+                        // never opened, nothing to clean up
+                    }
+                }
+            });
+        }
+        Future<?> done = backgroundCloser.submit(finishSegment());
+        try {
+            done.get();
+        } catch (Exception e) {
+            throw new IOException("unable to close " + segmentFile, e);
+        }
+    }
+
+    /**
+     * Segments written through a plain buffered stream.
+     */
+    public static class BufferedSegments extends SegmentedLogOutput<OutputStream> {
+        private OutputStream out;
+
+        public BufferedSegments(File dir, String prefix, String extension,
+                long maxBytes, long maxMillis, long maxRecords) throws IOException {
+            super(dir, prefix, extension, maxBytes, maxMillis, maxRecords);
+            startFirstSegment();
+        }
+
+        @Override
+        protected OutputStream createSegment(File file) throws IOException {
+            return new BufferedOutputStream(new FileOutputStream(file), 65536);
+        }
+
+        @Override
+        protected void attachSegment(OutputStream segment) {
+            out = segment;
+        }
+
+        @Override
+        protected void discardSegment(OutputStream segment, File file) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                // deleting it anyway
+            }
+            file.delete();
+        }
+
+        @Override
+        protected Runnable detachSegment() {
+            final OutputStream oldOut = out;
+            final File oldFile = getSegmentFile();
+            out = null;
+            return new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        oldOut.close();
+                    } catch (IOException e) {
+                        Controller.getEventLog().log(Level.SEVERE, "unable to close " + oldFile, e);
+                    }
+                }
+            };
+        }
+
+        @Override
+        protected void writeToSegment(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        protected void writeToSegment(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+    }
+}
@@ -18,11 +18,15 @@ public class StatRecorder {
     private final long[] c2sPacketBytes = new long[256];
     private final long[] s2cPacketCounts = new long[256];
     private final long[] s2cPacketBytes = new long[256];
+    private long c2sTotalBytes;
+    private long s2cTotalBytes;
     private final Object packetCountsLock = new Object();
     private final String connectionAddress;
     private final long startTimestamp;
     private final File statsFile;
+    private boolean started;
     private boolean stopWorkerThread;
+    private CaptureQueue captureQueue;
 
     public StatRecorder(String connectionAddress, long startTimestamp, File statsFile) {
         this.connectionAddress = connectionAddress;
@@ -30,7 +34,12 @@ public class StatRecorder {
         this.statsFile = statsFile;
     }
 
+    /**
+     * Start periodically dumping stats to the file. Without this, the
+     * recorder just keeps count, e.g. for {@link ConditionalCapture}.
+     */
     public void start() {
+        started = true;
         new Thread(Controller.NAME + " stat recorder") {
             @Override
             public void run() {
@@ -46,9 +55,15 @@ public class StatRecorder {
         }.start();
     }
 
+    public void setCaptureQueue(CaptureQueue captureQueue) {
+        this.captureQueue = captureQueue;
+    }
+
     public void stop() {
         stopWorkerThread = true;
-        dumpStats();
+        if (started) {
+            dumpStats();
+        }
     }
 
     public void record(PacketDirection dir, int packetId, int packetPayloadSize) {
@@ -56,13 +71,28 @@ public class StatRecorder {
             if (dir == PacketDirection.C2S) {
                 c2sPacketCounts[packetId] += 1;
                 c2sPacketBytes[packetId] += PACKET_HEADER_SIZE + packetPayloadSize;
+                c2sTotalBytes += PACKET_HEADER_SIZE + packetPayloadSize;
             } else {
                 s2cPacketCounts[packetId] += 1;
                 s2cPacketBytes[packetId] += PACKET_HEADER_SIZE + packetPayloadSize;
+                s2cTotalBytes += PACKET_HEADER_SIZE + packetPayloadSize;
             }
         }
     }
 
+    public long getPacketCount(PacketDirection dir, int packetId) {
+        synchronized (packetCountsLock) {
+            return dir == PacketDirection.C2S ? c2sPacketCounts[packetId] : s2cPacketCounts[packetId];
+        }
+    }
+
+    /** @return the approximate number of bytes of all packets so far */
+    public long getTotalBytes(PacketDirection dir) {
+        synchronized (packetCountsLock) {
+            return dir == PacketDirection.C2S ? c2sTotalBytes : s2cTotalBytes;
+        }
+    }
+
     public synchronized void dumpStats() {
         long now = System.currentTimeMillis();
         long interval = now - startTimestamp;
@@ -82,6 +112,11 @@ public class StatRecorder {
                 writer.println("Server to client:");
                 writeStatsTable(writer, interval, s2cPacketCounts, s2cPacketBytes);
             }
+            if (captureQueue != null) {
+                StringBuilder line = new StringBuilder("Async capture: ");
+                captureQueue.logStats(line);
+                writer.println(line.toString());
+            }
             writer.close();
         } catch (IOException e) {
             Controller.getEventLog().log(Level.SEVERE, "unable to save stats", e);
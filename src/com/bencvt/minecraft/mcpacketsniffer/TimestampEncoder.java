@@ -0,0 +1,119 @@
+package com.bencvt.minecraft.mcpacketsniffer;
+
+import java.util.Calendar;
+
+/**
+ * Renders timestamps like "2012-05-18 13:39:48.980" (local time, same as
+ * java.sql.Timestamp's toString padded to milliseconds) without allocating.
+ * <p>
+ * The "yyyy-MM-dd HH:mm:ss." prefix is cached and only rebuilt when the
+ * second changes, and only via Calendar when the minute changes, so the usual
+ * case is copying 20 cached chars plus three digits.
+ * <p>
+ * Not thread-safe: use one instance per thread.
+ */
+public class TimestampEncoder {
+    /** Length of "yyyy-MM-dd HH:mm:ss.SSS". */
+    public static final int LENGTH = 23;
+    private static final int PREFIX_LENGTH = 20;
+
+    /**
+     * A microsecond clock that doesn't go backwards: the wall clock is read
+     * once, and System.nanoTime provides the sub-millisecond precision from
+     * then on.
+     */
+    public static class MonotonicClock {
+        private final long baseMicros;
+        private final long baseNanos;
+
+        public MonotonicClock() {
+            baseNanos = System.nanoTime();
+            baseMicros = System.currentTimeMillis() * 1000L;
+        }
+
+        public long currentTimeMicros() {
+            return baseMicros + (System.nanoTime() - baseNanos) / 1000L;
+        }
+    }
+
+    private final Calendar calendar = Calendar.getInstance();
+    private final char[] chars = new char[LENGTH + 3];
+    private long secondStart = Long.MIN_VALUE;
+    private long minuteStart = Long.MIN_VALUE;
+
+    public void append(StringBuilder line, long timestamp) {
+        encode(timestamp);
+        line.append(chars, 0, LENGTH);
+    }
+
+    /**
+     * Like {@link #append(StringBuilder, long)}, but with microsecond
+     * precision: "2012-05-18 13:39:48.980123".
+     * @param micros e.g. from {@link MonotonicClock#currentTimeMicros}
+     */
+    public void appendMicros(StringBuilder line, long micros) {
+        long millis = floorDiv(micros, 1000L);
+        encode(millis);
+        int us = (int) (micros - millis * 1000L);
+        chars[LENGTH] = (char) ('0' + us / 100);
+        chars[LENGTH + 1] = (char) ('0' + us / 10 % 10);
+        chars[LENGTH + 2] = (char) ('0' + us % 10);
+        line.append(chars, 0, LENGTH + 3);
+    }
+
+    private void encode(long timestamp) {
+        long ms = timestamp - secondStart;
+        if (ms < 0L || ms >= 1000L) {
+            updatePrefix(timestamp);
+            ms = timestamp - secondStart;
+        }
+        int n = (int) ms;
+        chars[PREFIX_LENGTH] = (char) ('0' + n / 100);
+        chars[PREFIX_LENGTH + 1] = (char) ('0' + n / 10 % 10);
+        chars[PREFIX_LENGTH + 2] = (char) ('0' + n % 10);
+    }
+
+    private void updatePrefix(long timestamp) {
+        long sinceMinute = timestamp - minuteStart;
+        if (sinceMinute >= 0L && sinceMinute < 60000L) {
+            // same minute, just the seconds changed
+            int second = (int) (sinceMinute / 1000L);
+            secondStart = minuteStart + second * 1000L;
+            put2(17, second);
+            return;
+        }
+        calendar.setTimeInMillis(timestamp);
+        int second = calendar.get(Calendar.SECOND);
+        int millis = calendar.get(Calendar.MILLISECOND);
+        secondStart = timestamp - millis;
+        minuteStart = secondStart - second * 1000L;
+        int year = calendar.get(Calendar.YEAR);
+        chars[0] = (char) ('0' + year / 1000 % 10);
+        chars[1] = (char) ('0' + year / 100 % 10);
+        put2(2, year % 100);
+        chars[4] = '-';
+        put2(5, calendar.get(Calendar.MONTH) + 1);
+        chars[7] = '-';
+        put2(8, calendar.get(Calendar.DAY_OF_MONTH));
+        chars[10] = ' ';
+        put2(11, calendar.get(Calendar.HOUR_OF_DAY));
+        chars[13] = ':';
+        put2(14, calendar.get(Calendar.MINUTE));
+        chars[16] = ':';
+        put2(17, second);
+        chars[19] = '.';
+    }
+
+    private void put2(int offset, int n) {
+        chars[offset] = (char) ('0' + n / 10);
+        chars[offset + 1] = (char) ('0' + n % 10);
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0L) && ((x ^ y) < 0L)) {
+            q--;
+        }
+        return q;
+    }
+}
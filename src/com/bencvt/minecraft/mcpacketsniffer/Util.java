@@ -7,8 +7,7 @@ import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Field;
-import java.sql.Timestamp;
-import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.FileHandler;
 import java.util.logging.Formatter;
 import java.util.logging.Level;
@@ -23,14 +22,16 @@ public abstract class Util {
         /** Formats lines like: "2012-05-21 20:57:06.540 [INFO] example message" */
         public static class LineFormatter extends Formatter
         {
+            // format() is only ever called by the handler while it holds its lock
+            private final TimestampEncoder timestampEncoder = new TimestampEncoder();
+            private final StringBuilder ts = new StringBuilder(TimestampEncoder.LENGTH);
+
             @Override
             public String format(LogRecord record) {
                 StringWriter w = new StringWriter();
-                String ts = new Timestamp((new Date()).getTime()).toString();
+                ts.setLength(0);
+                timestampEncoder.append(ts, record.getMillis());
                 w.append(ts);
-                for (int pad = ts.length(); pad < 23; pad++) {
-                    w.append('0');
-                }
                 w.append(" [").append(record.getLevel().getName());
                 w.append("] ").append(formatMessage(record)).append('\n');
                 if (record.getThrown() != null) {
@@ -54,11 +55,62 @@ public abstract class Util {
         }
     }
 
+    /**
+     * Fields resolved by {@link #getFieldByType} for one class. Immutable:
+     * resolving another lookup replaces the whole snapshot in the map, so
+     * reads never lock. Each class only has a handful of (type, n) lookups,
+     * so a linear scan beats building a composite key.
+     */
+    private static class ResolvedFields {
+        private static final ResolvedFields EMPTY = new ResolvedFields(new Class<?>[0], new int[0], new Field[0]);
+
+        private final Class<?>[] types;
+        private final int[] indexes;
+        /** null entries are lookups that failed */
+        private final Field[] fields;
+
+        private ResolvedFields(Class<?>[] types, int[] indexes, Field[] fields) {
+            this.types = types;
+            this.indexes = indexes;
+            this.fields = fields;
+        }
+
+        /** @return the position of the lookup, or -1 if not resolved yet */
+        public int find(Class<?> type, int n) {
+            for (int i = 0; i < types.length; i++) {
+                if (types[i] == type && indexes[i] == n) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public ResolvedFields with(Class<?> type, int n, Field field) {
+            int size = types.length;
+            Class<?>[] newTypes = new Class<?>[size + 1];
+            int[] newIndexes = new int[size + 1];
+            Field[] newFields = new Field[size + 1];
+            System.arraycopy(types, 0, newTypes, 0, size);
+            System.arraycopy(indexes, 0, newIndexes, 0, size);
+            System.arraycopy(fields, 0, newFields, 0, size);
+            newTypes[size] = type;
+            newIndexes[size] = n;
+            newFields[size] = field;
+            return new ResolvedFields(newTypes, newIndexes, newFields);
+        }
+    }
+    private static final ConcurrentHashMap<Class<?>, ResolvedFields> resolvedFields =
+            new ConcurrentHashMap<Class<?>, ResolvedFields>();
+
     /**
      * For getting at those pesky private and obfuscated fields.
      * @return the nth (usually 0) field of the specified type declared by
      *         obj's class, or null if there was a reflection error.
      *         <p>
+     *         The field is only looked up the first time for each
+     *         (class, type, n); failures are remembered too, and only
+     *         logged once.
+     *         <p>
      *         Caveat: this is not guaranteed to work correctly if there are
      *         more than one declared fields of the same type on obj.
      *         <p>
@@ -72,23 +124,60 @@ public abstract class Util {
      */
     @SuppressWarnings("rawtypes")
     public static Object getFieldByType(Object obj, Class type, int n) {
+        Field field = resolveFieldByType(obj.getClass(), type, n);
+        if (field == null) {
+            return null;
+        }
+        try {
+            return field.get(obj);
+        } catch (Exception e) {
+            Controller.getEventLog().log(Level.SEVERE,
+                    "unable to reflect field type " + type + "#" + n + " for " + obj, e);
+            return null;
+        }
+    }
+
+    private static Field resolveFieldByType(Class<?> c, Class<?> type, int n) {
+        ResolvedFields resolved = resolvedFields.get(c);
+        if (resolved != null) {
+            int i = resolved.find(type, n);
+            if (i >= 0) {
+                return resolved.fields[i];
+            }
+        }
+
+        Field result = null;
         try {
             int index = 0;
-            for (Field field : obj.getClass().getDeclaredFields()) {
-                field.setAccessible(true);
+            for (Field field : c.getDeclaredFields()) {
                 if (field.getType().equals(type)) {
                     if (index == n) {
-                        return field.get(obj);
+                        field.setAccessible(true);
+                        result = field;
+                        break;
                     }
                     index++;
                 }
             }
-            throw new RuntimeException("field not found");
+            if (result == null) {
+                throw new RuntimeException("field not found");
+            }
         } catch (Exception e) {
             Controller.getEventLog().log(Level.SEVERE,
-                    "unable to reflect field type " + type + "#" + n + " for " + obj, e);
-            return null;
+                    "unable to reflect field type " + type + "#" + n + " for " + c + ", won't retry", e);
+        }
+
+        // rare, so writers can simply take turns
+        synchronized (resolvedFields) {
+            resolved = resolvedFields.get(c);
+            if (resolved == null) {
+                resolved = ResolvedFields.EMPTY;
+            }
+            if (resolved.find(type, n) < 0) {
+                resolvedFields.put(c, resolved.with(type, n, result));
+            }
         }
+        return result;
     }
 
     public static Object getFieldByName(Object obj, String name) {